@@ -0,0 +1,63 @@
+package todoapp;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Function;
+// 待推送的变更集：按ID去重，每次标记记一个递增序号。推送时取一批，服务端确认后只移除
+// 序号没变的条目，请求在途期间再次修改的实体保留到下一次推送。只在 FX 线程使用
+public class ChangeSet<T> {
+    private final Function<T, String> idOf;
+    private final LinkedHashMap<String, T> entries = new LinkedHashMap<>();
+    private final Map<String, Long> marks = new HashMap<>();
+    private long seq;
+
+    public ChangeSet(Function<T, String> idOf) {
+        this.idOf = idOf;
+    }
+
+    public void mark(T item) {
+        String id = idOf.apply(item);
+        entries.put(id, item);
+        marks.put(id, ++seq);
+    }
+
+    public boolean isEmpty() {
+        return entries.isEmpty();
+    }
+
+    public int size() {
+        return entries.size();
+    }
+
+    public Batch<T> batch() {
+        return new Batch<>(new ArrayList<>(entries.values()), new HashMap<>(marks));
+    }
+
+    // 服务端确认了这一批：移除取批之后没有再被修改的条目，返回移除的数量
+    public int acknowledge(Batch<T> batch) {
+        int removed = 0;
+        for (Map.Entry<String, Long> e : batch.marks.entrySet()) {
+            if (e.getValue().equals(marks.get(e.getKey()))) {
+                marks.remove(e.getKey());
+                entries.remove(e.getKey());
+                removed++;
+            }
+        }
+        return removed;
+    }
+
+    public static class Batch<T> {
+        final List<T> items;
+        private final Map<String, Long> marks;
+
+        Batch(List<T> items, Map<String, Long> marks) {
+            this.items = items;
+            this.marks = marks;
+        }
+
+        public List<T> items() { return items; }
+    }
+}
@@ -0,0 +1,481 @@
+package todoapp;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInput;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.TreeMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.zip.CRC32;
+// 客户端本地增量存储：快照（原来的 todo_data_<user>.ser）+ 追加日志。
+// 每次保存只把和上次落盘状态不同的任务、清单、成员关系追加到日志；日志超过阈值后在后台压缩成新快照
+public class LocalTaskStore implements TaskStorage {
+    private static final long COMPACT_BYTES = 1024 * 1024;
+    private static final int MAX_RECORD_SIZE = 16 * 1024 * 1024;
+    private static final String JOURNAL_SUFFIX = ".journal";
+    // 成员关系的作用域：全局未完成、全局已完成，其余为清单ID
+    private static final String UNCOMPLETED = "#u";
+    private static final String COMPLETED = "#c";
+    // 日志记录类型
+    private static final byte PUT_TASK = 1;
+    private static final byte DROP_TASK = 2;
+    private static final byte PUT_LIST = 3;
+    private static final byte DROP_LIST = 4;
+    private static final byte ADD_MEMBER = 5;
+    private static final byte REMOVE_MEMBER = 6;
+    private final Path snapshotFile;
+    private final Path dir;
+    private final String journalPrefix;
+    // 已落盘状态的镜像，保存时与界面数据比对得出增量
+    private final Map<String, TaskRecord> tasks = new HashMap<>();
+    private final Map<String, ListRecord> lists = new LinkedHashMap<>();
+    private final Map<String, LinkedHashSet<String>> members = new HashMap<>();
+    private final ExecutorService compactor = Executors.newSingleThreadExecutor(r -> {
+        Thread t = new Thread(r, "local-store-compactor");
+        t.setDaemon(true);
+        return t;
+    });
+    private final AtomicBoolean compacting = new AtomicBoolean(false);
+    private FileChannel journal;
+    private long journalSeq;
+    private long journalBytes;
+
+    // 任务的落盘字段，不可变
+    private static final class TaskRecord {
+        final String id;
+        final String name;
+        final boolean completed;
+        final boolean deleted;
+        final long lastModified;
+        final String listId;
+        TaskRecord(String id, String name, boolean completed, boolean deleted, long lastModified, String listId) {
+            this.id = id;
+            this.name = name;
+            this.completed = completed;
+            this.deleted = deleted;
+            this.lastModified = lastModified;
+            this.listId = listId;
+        }
+        static TaskRecord of(Task t) {
+            return new TaskRecord(t.getId(), t.getName(), t.isCompleted(), t.isDeleted(), t.getLastModified(), t.getListId());
+        }
+        boolean matches(Task t) {
+            return lastModified == t.getLastModified() && completed == t.isCompleted() && deleted == t.isDeleted()
+                    && Objects.equals(name, t.getName()) && Objects.equals(listId, t.getListId());
+        }
+        Task toTask() {
+            Task t = new Task(id, name, completed, deleted, lastModified);
+            t.setListId(listId);
+            return t;
+        }
+    }
+
+    // 清单的落盘字段（成员关系单独记录），不可变
+    private static final class ListRecord {
+        final String id;
+        final String name;
+        final boolean deleted;
+        final long lastModified;
+        ListRecord(String id, String name, boolean deleted, long lastModified) {
+            this.id = id;
+            this.name = name;
+            this.deleted = deleted;
+            this.lastModified = lastModified;
+        }
+        static ListRecord of(TaskList l) {
+            return new ListRecord(l.getId(), l.getName(), l.isDeleted(), l.getLastModified());
+        }
+        boolean matches(TaskList l) {
+            return lastModified == l.getLastModified() && deleted == l.isDeleted() && Objects.equals(name, l.getName());
+        }
+    }
+
+    public LocalTaskStore(Path snapshotFile) {
+        this.snapshotFile = snapshotFile;
+        this.dir = snapshotFile.toAbsolutePath().getParent();
+        String name = snapshotFile.getFileName().toString();
+        this.journalPrefix = (name.endsWith(".ser") ? name.substring(0, name.length() - 4) : name) + ".";
+    }
+
+    // 读取快照并重放日志
+    @Override
+    public synchronized TaskData load() throws IOException, ClassNotFoundException {
+        Files.createDirectories(dir);
+        tasks.clear();
+        lists.clear();
+        members.clear();
+        TreeMap<Long, Path> journals = journals();
+        journalSeq = journals.isEmpty() ? 1 : journals.lastKey();
+        openJournal();
+        boolean found = Files.exists(snapshotFile);
+        if (found) {
+            try (ObjectInputStream ois = new ObjectInputStream(new BufferedInputStream(Files.newInputStream(snapshotFile)))) {
+                TaskData data = (TaskData) ois.readObject();
+                diff(TaskStorage.capture(Arrays.asList(data.getUncompletedTasks()), Arrays.asList(data.getCompletedTasks()),
+                        Arrays.asList(data.getCustomLists())), new DataOutputStream(new ByteArrayOutputStream()));
+            } catch (IOException | ClassNotFoundException e) {
+                // 损坏的快照移到一边保留，之后的保存和压缩不再受它影响
+                Files.move(snapshotFile, snapshotFile.resolveSibling(snapshotFile.getFileName() + ".corrupt"),
+                        StandardCopyOption.REPLACE_EXISTING);
+                throw e;
+            }
+        }
+        journalBytes = 0;
+        for (Path file : journals.values()) {
+            replay(file);
+            journalBytes += Files.size(file);
+            found = true;
+        }
+        if (journalBytes > COMPACT_BYTES) compact();
+        return found ? materialize(tasks, lists, members) : null;
+    }
+
+    // 只追加变化的部分并 fsync
+    @Override
+    public synchronized long save(Snapshot snapshot) throws IOException {
+        if (journal == null) {
+            Files.createDirectories(dir);
+            journalSeq = journals().isEmpty() ? 1 : journals().lastKey();
+            openJournal();
+        }
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        diff(snapshot, new DataOutputStream(bytes));
+        if (bytes.size() == 0) return 0;
+        ByteBuffer buf = ByteBuffer.wrap(bytes.toByteArray());
+        while (buf.hasRemaining()) journal.write(buf);
+        journal.force(false);
+        journalBytes += bytes.size();
+        if (journalBytes > COMPACT_BYTES) compact();
+        return bytes.size();
+    }
+
+    @Override
+    public void close() throws IOException {
+        compactor.shutdown();
+        try {
+            compactor.awaitTermination(10, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        synchronized (this) {
+            if (journal != null) journal.close();
+            journal = null;
+        }
+    }
+
+    // 比对并更新镜像，变化写成日志记录
+    private void diff(Snapshot snapshot, DataOutputStream out) throws IOException {
+        Map<String, Task> live = new HashMap<>();
+        Map<String, LinkedHashSet<String>> scopes = new HashMap<>();
+        collect(UNCOMPLETED, snapshot.uncompleted, live, scopes);
+        collect(COMPLETED, snapshot.completed, live, scopes);
+        Map<String, TaskList> liveLists = new LinkedHashMap<>();
+        for (int i = 0; i < snapshot.lists.size(); i++) {
+            TaskList l = snapshot.lists.get(i);
+            liveLists.put(l.getId(), l);
+            collect(l.getId(), snapshot.members.get(i), live, scopes);
+        }
+        for (TaskList l : liveLists.values()) {
+            ListRecord old = lists.get(l.getId());
+            if (old == null || !old.matches(l)) {
+                ListRecord rec = ListRecord.of(l);
+                lists.put(rec.id, rec);
+                record(out, PUT_LIST, o -> {
+                    o.writeUTF(rec.id);
+                    writeNullable(o, rec.name);
+                    o.writeBoolean(rec.deleted);
+                    o.writeLong(rec.lastModified);
+                });
+            }
+        }
+        for (Task t : live.values()) {
+            TaskRecord old = tasks.get(t.getId());
+            if (old == null || !old.matches(t)) {
+                TaskRecord rec = TaskRecord.of(t);
+                tasks.put(rec.id, rec);
+                record(out, PUT_TASK, o -> {
+                    o.writeUTF(rec.id);
+                    writeNullable(o, rec.name);
+                    o.writeBoolean(rec.completed);
+                    o.writeBoolean(rec.deleted);
+                    o.writeLong(rec.lastModified);
+                    writeNullable(o, rec.listId);
+                });
+            }
+        }
+        for (Map.Entry<String, LinkedHashSet<String>> e : scopes.entrySet()) {
+            String scope = e.getKey();
+            LinkedHashSet<String> old = members.get(scope);
+            for (String id : e.getValue()) {
+                if (old == null || !old.contains(id)) record(out, ADD_MEMBER, o -> { o.writeUTF(scope); o.writeUTF(id); });
+            }
+            if (old != null) {
+                for (String id : old) {
+                    if (!e.getValue().contains(id)) record(out, REMOVE_MEMBER, o -> { o.writeUTF(scope); o.writeUTF(id); });
+                }
+            }
+            members.put(scope, e.getValue());
+        }
+        for (Iterator<String> it = tasks.keySet().iterator(); it.hasNext(); ) {
+            String id = it.next();
+            if (!live.containsKey(id)) {
+                it.remove();
+                record(out, DROP_TASK, o -> o.writeUTF(id));
+            }
+        }
+        for (Iterator<String> it = lists.keySet().iterator(); it.hasNext(); ) {
+            String id = it.next();
+            if (!liveLists.containsKey(id)) {
+                it.remove();
+                members.remove(id);
+                record(out, DROP_LIST, o -> o.writeUTF(id));
+            }
+        }
+    }
+
+    private static void collect(String scope, Collection<Task> source, Map<String, Task> live,
+                                Map<String, LinkedHashSet<String>> scopes) {
+        LinkedHashSet<String> ids = new LinkedHashSet<>();
+        for (Task t : source) {
+            ids.add(t.getId());
+            live.putIfAbsent(t.getId(), t);
+        }
+        scopes.put(scope, ids);
+    }
+
+    private interface RecordBody {
+        void write(DataOutputStream out) throws IOException;
+    }
+
+    // 记录格式：长度 | CRC32 | 类型 + 字段
+    private static void record(DataOutputStream out, byte type, RecordBody body) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(64);
+        DataOutputStream o = new DataOutputStream(bytes);
+        o.writeByte(type);
+        body.write(o);
+        byte[] b = bytes.toByteArray();
+        out.writeInt(b.length);
+        out.writeInt(crc(b));
+        out.write(b);
+    }
+
+    // 重放一个日志文件，遇到损坏或不完整的尾部即停止并截掉
+    private void replay(Path file) throws IOException {
+        long validBytes = 0;
+        boolean torn = false;
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file)))) {
+            while (true) {
+                int len;
+                try {
+                    len = in.readInt();
+                } catch (EOFException e) {
+                    break;
+                }
+                if (len <= 0 || len > MAX_RECORD_SIZE) {
+                    torn = true;
+                    break;
+                }
+                byte[] body = new byte[len];
+                int crc;
+                try {
+                    crc = in.readInt();
+                    in.readFully(body);
+                } catch (EOFException e) {
+                    torn = true;
+                    break;
+                }
+                if (crc(body) != crc) {
+                    torn = true;
+                    break;
+                }
+                apply(new DataInputStream(new ByteArrayInputStream(body)));
+                validBytes += 8 + len;
+            }
+        }
+        if (torn) {
+            System.err.println("本地日志尾部损坏，已截断: " + file);
+            try (FileChannel fc = FileChannel.open(file, StandardOpenOption.WRITE)) {
+                fc.truncate(validBytes);
+                fc.force(true);
+            }
+        }
+    }
+
+    // 记录都是整条覆盖或集合增删，重复重放结果不变
+    private void apply(DataInput in) throws IOException {
+        byte type = in.readByte();
+        switch (type) {
+            case PUT_TASK: {
+                String id = in.readUTF();
+                TaskRecord rec = new TaskRecord(id, readNullable(in), in.readBoolean(), in.readBoolean(),
+                        in.readLong(), readNullable(in));
+                tasks.put(id, rec);
+                break;
+            }
+            case DROP_TASK:
+                tasks.remove(in.readUTF());
+                break;
+            case PUT_LIST: {
+                String id = in.readUTF();
+                lists.put(id, new ListRecord(id, readNullable(in), in.readBoolean(), in.readLong()));
+                break;
+            }
+            case DROP_LIST: {
+                String id = in.readUTF();
+                lists.remove(id);
+                members.remove(id);
+                break;
+            }
+            case ADD_MEMBER: {
+                String scope = in.readUTF();
+                members.computeIfAbsent(scope, k -> new LinkedHashSet<>()).add(in.readUTF());
+                break;
+            }
+            case REMOVE_MEMBER: {
+                String scope = in.readUTF();
+                LinkedHashSet<String> ids = members.get(scope);
+                String id = in.readUTF();
+                if (ids != null) ids.remove(id);
+                break;
+            }
+            default:
+                throw new IOException("未知的本地日志记录类型: " + type);
+        }
+    }
+
+    // 切换到新日志文件，在后台把切换时的状态写成快照，成功后删除被覆盖的旧日志
+    private void compact() throws IOException {
+        if (compactor.isShutdown() || !compacting.compareAndSet(false, true)) return;
+        long coveredSeq = journalSeq;
+        journal.close();
+        journalSeq++;
+        openJournal();
+        journalBytes = 0;
+        Map<String, TaskRecord> taskCopy = new HashMap<>(tasks);
+        Map<String, ListRecord> listCopy = new LinkedHashMap<>(lists);
+        Map<String, List<String>> memberCopy = new HashMap<>();
+        for (Map.Entry<String, LinkedHashSet<String>> e : members.entrySet()) {
+            memberCopy.put(e.getKey(), new ArrayList<>(e.getValue()));
+        }
+        compactor.execute(() -> {
+            try {
+                long start = System.nanoTime();
+                writeSnapshot(materialize(taskCopy, listCopy, memberCopy));
+                for (Map.Entry<Long, Path> e : journals().entrySet()) {
+                    if (e.getKey() <= coveredSeq) Files.deleteIfExists(e.getValue());
+                }
+                System.out.println("本地数据已压缩，耗时 " + (System.nanoTime() - start) / 1_000_000 + " ms");
+            } catch (IOException e) {
+                System.err.println("压缩本地数据失败: " + e.getMessage());
+            } finally {
+                compacting.set(false);
+            }
+        });
+    }
+
+    // 临时文件写完并 fsync 后原子替换，崩溃时旧快照保持完整
+    private void writeSnapshot(TaskData data) throws IOException {
+        Path tmp = snapshotFile.resolveSibling(snapshotFile.getFileName() + ".tmp");
+        try (FileOutputStream fos = new FileOutputStream(tmp.toFile());
+             ObjectOutputStream oos = new ObjectOutputStream(new BufferedOutputStream(fos))) {
+            oos.writeObject(data);
+            oos.flush();
+            fos.getFD().sync();
+        }
+        Files.move(tmp, snapshotFile, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+    }
+
+    // 按镜像重建任务和清单对象，同一ID只建一个任务对象
+    private static TaskData materialize(Map<String, TaskRecord> tasks, Map<String, ListRecord> lists,
+                                        Map<String, ? extends Collection<String>> members) {
+        Map<String, Task> built = new HashMap<>();
+        List<Task> uncompleted = build(members.get(UNCOMPLETED), tasks, built);
+        List<Task> completed = build(members.get(COMPLETED), tasks, built);
+        List<TaskList> customLists = new ArrayList<>(lists.size());
+        for (ListRecord l : lists.values()) {
+            TaskList list = new TaskList(l.id, l.name, l.deleted, l.lastModified);
+            for (Task t : build(members.get(l.id), tasks, built)) {
+                t.setBelongsTo(list);
+                list.getTasks().add(t);
+            }
+            customLists.add(list);
+        }
+        return new TaskData(uncompleted.toArray(new Task[0]), completed.toArray(new Task[0]),
+                customLists.toArray(new TaskList[0]));
+    }
+
+    private static List<Task> build(Collection<String> ids, Map<String, TaskRecord> tasks, Map<String, Task> built) {
+        List<Task> result = new ArrayList<>();
+        if (ids == null) return result;
+        for (String id : ids) {
+            TaskRecord rec = tasks.get(id);
+            if (rec != null) result.add(built.computeIfAbsent(id, k -> rec.toTask()));
+        }
+        return result;
+    }
+
+    private void openJournal() throws IOException {
+        journal = FileChannel.open(dir.resolve(journalPrefix + journalSeq + JOURNAL_SUFFIX),
+                StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+    }
+
+    // 日志文件按序号排序
+    private TreeMap<Long, Path> journals() throws IOException {
+        TreeMap<Long, Path> result = new TreeMap<>();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(dir, journalPrefix + "*" + JOURNAL_SUFFIX)) {
+            for (Path p : stream) {
+                String name = p.getFileName().toString();
+                String num = name.substring(journalPrefix.length(), name.length() - JOURNAL_SUFFIX.length());
+                try {
+                    result.put(Long.parseLong(num), p);
+                } catch (NumberFormatException e) {
+                    // 不是本存储的日志文件
+                }
+            }
+        }
+        return result;
+    }
+
+    private static void writeNullable(DataOutputStream out, String s) throws IOException {
+        out.writeBoolean(s != null);
+        if (s != null) out.writeUTF(s);
+    }
+
+    private static String readNullable(DataInput in) throws IOException {
+        return in.readBoolean() ? in.readUTF() : null;
+    }
+
+    private static int crc(byte[] data) {
+        CRC32 crc = new CRC32();
+        crc.update(data);
+        return (int) crc.getValue();
+    }
+}
@@ -5,10 +5,9 @@ import javafx.application.Platform;
 import javafx.geometry.Insets;
 import javafx.geometry.Pos;
 import javafx.scene.Node;
+import javafx.scene.Parent;
 import javafx.scene.Scene;
 import javafx.scene.control.*;
-import javafx.scene.input.MouseButton;
-import javafx.scene.input.MouseEvent;
 import javafx.scene.layout.*;
 import javafx.scene.shape.Circle;
 import javafx.scene.paint.Color;
@@ -20,59 +19,83 @@ import javafx.beans.property.SimpleStringProperty;
 import javafx.beans.property.StringProperty;
 import javafx.collections.FXCollections;
 import javafx.collections.ObservableList;
+import javafx.collections.transformation.FilteredList;
 import javafx.scene.text.Font;
 import javafx.scene.text.FontWeight;
 import javafx.beans.binding.Bindings;
+import java.lang.management.ManagementFactory;
 import java.time.LocalDate;
 import java.time.LocalDateTime;
 import java.time.format.DateTimeFormatter;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
 import java.util.Optional;
-import java.util.concurrent.Executors;
-import java.util.concurrent.ScheduledExecutorService;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 public class MainBorderPane extends Application {
+    // 性能输出开关（-Dtodo.metrics=true）：搜索耗时、同步请求统计等每次操作都会输出的数据只在打开时输出
+    static final boolean METRICS = Boolean.getBoolean("todo.metrics");
     private static MainBorderPane instance;
     public MainBorderPane() { instance = this; }
     public static MainBorderPane getInstance() { return instance; }
     private TaskDataManager dataManager; // 声明数据管理器
     private boolean isDataDirty = false; // 标记数据是否修改
-    private ScheduledExecutorService autoSaveService; // 添加自动保存服务
+    private long loginNanos; // 登录弹窗停留时间，启动耗时中扣除
+    private SyncCoordinator syncCoordinator; // 统一调度保存、推送和拉取
     private boolean syncEnabled = true; // 默认开启云同步
     private ToggleButton syncToggleBtn;  // 云同步开关按钮
-    // 任务按完成状态分开存储（全局任务）
-    ObservableList<Task> uncompletedTasks = FXCollections.observableArrayList();
-    ObservableList<Task> completedTasks = FXCollections.observableArrayList();
-    ObservableList<TaskList> customLists = FXCollections.observableArrayList();
+    // 任务仓库：按ID索引的任务表，今天/收集箱/已完成和各清单都是它维护的视图
+    final TaskRepository repository = new TaskRepository(this);
     ObservableList<Task> deletedTasks = FXCollections.observableArrayList();
     private VBox leftMenu;
     private ScrollPane contentArea;
     private Label currentViewLabel;
     private String currentView = "今天";
     private VBox taskContainer;
+    private TitledPane uncompletedPane;
+    private TitledPane completedPane;
+    // 当前视图的实时投影
+    private FilteredList<Task> uncompletedProjection;
+    private FilteredList<Task> completedProjection;
+    private String projectedView;
+    private TaskList projectedList;
+    private final AtomicBoolean refreshScheduled = new AtomicBoolean(false);
+    // 跨清单搜索：有搜索词时内容区显示搜索结果，清空后回到当前视图
+    private static final String SEARCH_VIEW = "搜索";
+    private static final int SEARCH_LIMIT = 100;
+    private TextField searchField;
+    private String searchQuery = "";
+    private final ObservableList<Task> searchResults = FXCollections.observableArrayList();
     private TextField taskInput;
     Label statusLabel = new Label();
     private TaskNetworkService networkService;
     private String userId;
     private final StringProperty syncStatus = new SimpleStringProperty("未同步");
     private final BooleanProperty isOnline = new SimpleBooleanProperty(false);
-    // 增量同步变更集
-    private final ArrayList<Task> changedTasks = new ArrayList<>();
-    private final ArrayList<TaskList> changedLists = new ArrayList<>();
+    // 增量同步变更集：按ID去重，服务端确认后才移除
+    private final ChangeSet<Task> changedTasks = new ChangeSet<>(Task::getId);
+    private final ChangeSet<TaskList> changedLists = new ChangeSet<>(TaskList::getId);
 
     @Override
     public void start(Stage primaryStage) {
-        // 启动时弹窗输入用户名
-        userId = askUserId();
+        // 启动时弹窗输入用户名（-Dtodo.user 指定时跳过，便于自动化测量启动耗时）
+        long loginStart = System.nanoTime();
+        userId = System.getProperty("todo.user");
+        if (userId == null) userId = askUserId();
+        loginNanos = System.nanoTime() - loginStart;
         if (userId == null || userId.trim().isEmpty()) {
             Platform.exit();
             return;
         }
         // 初始化数据管理器和网络服务
         dataManager = new TaskDataManager(this, userId);
-        networkService = new TaskNetworkService("http://localhost:8080");
+        networkService = new TaskNetworkService(System.getProperty("todo.server.url", "http://localhost:8080"));
         networkService.setUserId(userId);
-        networkService.setCallbacks(this::handleNetworkData, this::handleNetworkError);
+        networkService.setErrorHandler(this::handleNetworkError);
         BorderPane mainStage = new BorderPane();
         mainStage.setStyle("-fx-background-color: #f5f5f5;");
         mainStage.setTop(createTopToolBar());
@@ -89,27 +112,25 @@ public class MainBorderPane extends Application {
         primaryStage.setTitle("任务管理");
         primaryStage.setScene(scene);
         primaryStage.show();
-        Platform.runLater(() -> {
-            networkService.fetchTasks().thenAccept(remoteData -> {
-                Platform.runLater(() -> {
-                    dataManager.loadData();
-                    // 在数据加载完成后，检查并创建默认清单
-                    initializeDefaultLists();
-                    // 启动自动保存服务
-                    setupAutoSave();
-                    // 刷新界面
-                    refreshCurrentView();
-                    refreshCustomListsUI();
-                });
+        // 本地优先：后台读取本地数据后立即渲染，再与服务端对账，服务端不可用也不影响使用
+        CompletableFuture.supplyAsync(dataManager::readLocalData).thenAccept(localData -> {
+            Platform.runLater(() -> {
+                dataManager.applyLocalData(localData);
+                // 在数据加载完成后，检查并创建默认清单
+                initializeDefaultLists();
+                // 启动同步调度
+                setupSyncCoordinator();
+                // 刷新界面
+                refreshCurrentView();
+                refreshCustomListsUI();
+                if (METRICS) reportFirstPaint(scene);
+                reconcileWithServer();
             });
         });
         // 添加窗口关闭事件处理
         primaryStage.setOnCloseRequest(event -> {
             saveAndShutdown();
         });
-        primaryStage.show();
-        // 添加定期同步
-        setupPeriodicSync();
         // 添加同步状态显示
         Label syncStatusLabel = new Label();
         syncStatusLabel.textProperty().bind(syncStatus);
@@ -124,8 +145,37 @@ public class MainBorderPane extends Application {
         statusBar.setAlignment(Pos.CENTER_LEFT);
         statusBar.setPadding(new Insets(5));
         mainStage.setBottom(statusBar);
-        // 启动定时拉取并合并服务器数据
-        setupPeriodicPullAndMerge();
+    }
+    // 启动后与服务端对账：304 时无需合并，失败时保持本地数据并标记离线
+    private void reconcileWithServer() {
+        networkService.fetchTasks()
+            .thenAccept(remoteData -> {
+                Platform.runLater(() -> isOnline.set(true));
+                dataManager.mergeAndSave(remoteData);
+            })
+            .exceptionally(error -> {
+                System.err.println("启动时连接服务端失败，使用本地数据: " + error.getMessage());
+                Platform.runLater(() -> {
+                    isOnline.set(false);
+                    syncStatus.set("离线，使用本地数据");
+                });
+                return null;
+            });
+    }
+    // 启动耗时：从 JVM 启动到首次布局出任务列表（不含登录弹窗停留的时间）；只在打开 METRICS 时调用。
+    // 输出固定格式的一行便于 CI 采集，同时指定 -Dtodo.exitAfterStartup=true 时测量完直接退出
+    private void reportFirstPaint(Scene scene) {
+        Runnable[] listener = new Runnable[1];
+        listener[0] = () -> {
+            scene.removePostLayoutPulseListener(listener[0]);
+            long uptime = ManagementFactory.getRuntimeMXBean().getUptime();
+            long startupMs = uptime - TimeUnit.NANOSECONDS.toMillis(loginNanos);
+            System.out.println("STARTUP first-paint-ms=" + startupMs + " tasks="
+                    + repository.size() + " lists=" + repository.lists().size());
+            if (Boolean.getBoolean("todo.exitAfterStartup")) Platform.exit();
+        };
+        scene.addPostLayoutPulseListener(listener[0]);
+        Platform.requestNextPulse();
     }
     //错误弹窗
     void showAlert(String title, String content) {
@@ -148,52 +198,53 @@ public class MainBorderPane extends Application {
         syncToggleBtn.setOnAction(e -> {
             syncEnabled = syncToggleBtn.isSelected();
             syncToggleBtn.setText(syncEnabled ? "云同步：开" : "云同步：关");
+            if (syncCoordinator != null) syncCoordinator.setEnabled(syncEnabled);
             if (syncEnabled) {
-                setupPeriodicSync();
-                syncToServer();
                 syncStatus.set("云同步已开启");
             } else {
                 syncStatus.set("本地模式（不同步）");
             }
         });
-        toolBar.getItems().addAll(statusLabel, new Separator(), syncToggleBtn);
+        // 搜索框：输入即在所有清单中按名称搜索
+        searchField = new TextField();
+        searchField.setPromptText("搜索所有任务");
+        searchField.setPrefWidth(240);
+        searchField.textProperty().addListener((obs, oldVal, newVal) -> {
+            searchQuery = newVal.trim();
+            refreshCurrentView();
+        });
+        toolBar.getItems().addAll(statusLabel, new Separator(), syncToggleBtn, new Separator(), searchField);
         return toolBar;
     }
     void markDataAsDirty() {
         System.out.println("数据已标记为修改");
         isDataDirty = true;
         updateStatusLabel();
-        // 确保数据修改后立即触发自动保存
-        if (autoSaveService == null || autoSaveService.isShutdown()) {
-            setupAutoSave();
-        }
-    }
-    private void setupAutoSave() {
-        System.out.println("设置自动保存服务");
-        if (autoSaveService != null && !autoSaveService.isShutdown()) {
-            return; // 如果服务已经在运行，则不需要重新创建
-        }
-        autoSaveService = Executors.newSingleThreadScheduledExecutor();
-        autoSaveService.scheduleAtFixedRate(
-                () -> {
-                    Platform.runLater(() -> {
-                        if (isDataDirty) {
-                            System.out.println("执行自动保存...");
-                            dataManager.saveData(true); // 使用静默保存
-                            isDataDirty = false;
-                            updateStatusLabel();
-                            System.out.println("自动保存完成");
-                            if (syncEnabled) {
-                                syncToServer();
-                            }
-                        }
-                    });
-                },
-                2, // 首次保存延迟2s
-                2, // 之后每2s保存一次
-                TimeUnit.SECONDS
-        );
-        System.out.println("自动保存服务已启动");
+        // 连续修改由调度器合并，空闲片刻后统一保存并推送
+        if (syncCoordinator != null) syncCoordinator.markDirty();
+    }
+    // 保存、推送、拉取共用一个调度器：编辑防抖合并，推送和拉取各自最多一个在途请求，
+    // 服务端空闲或不可达时拉取间隔逐步拉长；推送连接正常时只在收到通知后拉取
+    private void setupSyncCoordinator() {
+        if (syncCoordinator != null) return;
+        syncCoordinator = new SyncCoordinator(
+                () -> Platform.runLater(() -> {
+                    dataManager.requestSave(); // 快照后交给后台写线程
+                    recordOutgoing(); // 修改同时进入发件箱，关闭同步或离线时也不会丢
+                    isDataDirty = false;
+                    updateStatusLabel();
+                }),
+                () -> CompletableFuture.supplyAsync(this::syncToServer, Platform::runLater).thenCompose(f -> f),
+                this::pullAndMerge,
+                networkService::isStreamConnected,
+                networkService::isBehind);
+        syncCoordinator.setEnabled(syncEnabled);
+        // 第一次使用发件箱时，此前的修改是否已推送无从得知，整体标记一次；之后未推送的修改都在发件箱里
+        if (!dataManager.hasOutboxHistory()) markAllChanged();
+        networkService.startChangeStream(syncCoordinator::requestPull);
+        syncCoordinator.start();
+        if (isDataDirty) syncCoordinator.markDirty(); // 启动前已经标记的修改（如默认清单）
+        syncCoordinator.requestPush(); // 推送上次运行遗留在发件箱中的修改
     }
     private String askUserId() {
         TextInputDialog dialog = new TextInputDialog();
@@ -203,16 +254,16 @@ public class MainBorderPane extends Application {
         Optional<String> result = dialog.showAndWait();
         return result.orElse(null);
     }
-    private void setupPeriodicPullAndMerge() {
-        ScheduledExecutorService pullService = Executors.newSingleThreadScheduledExecutor();
-        pullService.scheduleAtFixedRate(() -> {
-            if (syncEnabled) {
-                networkService.fetchTasks().thenAccept(remoteData -> {
-                    dataManager.mergeAndSave(remoteData);
-                    Platform.runLater(this::refreshCurrentView);
-                });
-            }
-        }, 0, 5, java.util.concurrent.TimeUnit.SECONDS);
+    // 拉取增量并合并；结果表示是否拉到了变更，调度器据此调整轮询间隔
+    private CompletableFuture<Boolean> pullAndMerge() {
+        // 合并计划在后台计算，结果在 FX 线程一次性应用并刷新界面
+        return networkService.fetchChanges().thenCompose(data -> {
+            Platform.runLater(this::markOnline);
+            boolean changed = !data.getTasks().isEmpty() || !data.getDeletedTasks().isEmpty()
+                    || !data.getCustomLists().isEmpty();
+            if (!changed) return CompletableFuture.completedFuture(false);
+            return dataManager.mergeAndSave(data).thenApply(v -> true);
+        });
     }
     private void updateStatusLabel() {
         if (statusLabel != null) {
@@ -225,10 +276,10 @@ public class MainBorderPane extends Application {
     // 添加新方法：初始化默认清单（只在没有时创建一次）
     private void initializeDefaultLists() {
         // 检查是否已存在"加油哦"清单，如果不存在则创建
-        if (!TaskList.isNameExists(customLists, "加油哦")) {
+        if (repository.listByName("加油哦") == null) {
             System.out.println("创建默认清单：加油哦");
             TaskList defaultList = new TaskList("加油哦");
-            customLists.add(defaultList);
+            repository.addList(defaultList);
             // 刷新界面显示
             refreshCustomListsUI();
             markDataAsDirty();
@@ -237,20 +288,13 @@ public class MainBorderPane extends Application {
     // 保存数据并关闭自动保存服务
     private void saveAndShutdown() {//修改
         try {
-            // 如果数据有修改，执行最后一次保存
+            // 停止同步调度，还没推送的修改写入发件箱，再执行最后一次保存
+            if (syncCoordinator != null) syncCoordinator.shutdown();
+            recordOutgoing();
             dataManager.saveData();
             isDataDirty = false;
-            // 关闭自动保存服务
-            if (autoSaveService != null && !autoSaveService.isShutdown()) {
-                autoSaveService.shutdown();
-                // 等待任务终止（最多等待1秒）
-                if (!autoSaveService.awaitTermination(1, TimeUnit.SECONDS)) {
-                    autoSaveService.shutdownNow();
-                }
-            }
-        } catch (InterruptedException e) {
-            // 恢复中断状态
-            Thread.currentThread().interrupt();
+        } catch (RuntimeException e) {
+            System.err.println("关闭时保存失败: " + e.getMessage());
         }
     }
     // 应用关闭时调用
@@ -326,7 +370,7 @@ public class MainBorderPane extends Application {
         VBox customListsContainer = (VBox) customListsPane.getContent();
         customListsContainer.getChildren().clear();
         // 添加所有自定义清单
-        for (TaskList list : customLists) {
+        for (TaskList list : repository.lists()) {
             Button listBtn = createCustomNavButton("\u2630 " + list.getName(), list);
             customListsContainer.getChildren().add(listBtn);
         }
@@ -346,6 +390,7 @@ public class MainBorderPane extends Application {
             }
         });
         button.setOnAction(e -> {
+            searchField.clear();
             currentView = view;
             refreshCurrentView();
             updateNavButtonStyles(button);
@@ -366,6 +411,7 @@ public class MainBorderPane extends Application {
             }
         });
         button.setOnAction(e -> {
+            searchField.clear();
             currentView = list.getName();
             refreshCurrentView();
             updateNavButtonStyles(button);
@@ -381,7 +427,7 @@ public class MainBorderPane extends Application {
 
                 Optional<ButtonType> result = alert.showAndWait();
                 if (result.isPresent() && result.get() == ButtonType.OK) {
-                    customLists.remove(list);
+                    repository.removeList(list);
                     refreshCustomListsUI();
                     if (currentView.equals(list.getName())) {
                         currentView = "今天";
@@ -439,62 +485,132 @@ public class MainBorderPane extends Application {
                 addTaskToCurrentView(taskName);
             }
         });
-        // 任务容器
-        taskContainer = new VBox(5);
+        // 任务容器：两个分区各用一个 ListView，只在分区内部滚动，这样 ListView 的高度有界、只创建可见行
+        taskContainer = new VBox(15);
         taskContainer.setPadding(new Insets(0, 10, 0, 10));
+        uncompletedPane = createTaskSection("未完成任务", false);
+        completedPane = createTaskSection("已完成任务", true);
+        taskContainer.getChildren().addAll(uncompletedPane, completedPane);
+        VBox.setVgrow(taskContainer, Priority.ALWAYS);
         content.getChildren().addAll(currentViewLabel, taskInput, taskContainer);
+        scrollPane.setFitToHeight(true);
         scrollPane.setContent(content);
         return scrollPane;
     }
+    // 请求刷新当前视图，任意线程都可以调用：同一脉冲内的多次请求只执行一次。
+    // 增删任务、勾选完成由实时投影直接反映，不需要调用；只有切换视图或合并原地改了任务字段时才需要
     void refreshCurrentView() {
-        taskContainer.getChildren().clear();
-        taskContainer.setSpacing(15);
-        ObservableList<Task> uncompletedTasksList = FXCollections.observableArrayList();
-        ObservableList<Task> completedTasksList = FXCollections.observableArrayList();
-        switch (currentView) {
-            case "今天":
-            case "收集箱":
-                uncompletedTasksList.addAll(uncompletedTasks.filtered(t -> !t.isCompleted()));
-                completedTasksList.addAll(uncompletedTasks.filtered(Task::isCompleted));
-                completedTasksList.addAll(completedTasks.filtered(Task::isCompleted));
-                break;
-            case "已完成":
-                completedTasksList.addAll(uncompletedTasks.filtered(Task::isCompleted));
-                completedTasksList.addAll(completedTasks.filtered(Task::isCompleted));
-                break;
-            default:
-                TaskList customList = customLists.stream()
-                        .filter(list -> list.getName().equals(currentView))
-                        .findFirst().orElse(null);
-                if (customList != null) {
-                    uncompletedTasksList.addAll(customList.getTasks().filtered(task -> !task.isCompleted()));
-                    completedTasksList.addAll(customList.getTasks().filtered(Task::isCompleted));
-                }
-                break;
+        if (refreshScheduled.compareAndSet(false, true)) {
+            Platform.runLater(() -> {
+                refreshScheduled.set(false);
+                updateProjections();
+            });
         }
-        TitledPane uncompletedPane = createTaskSection("未完成任务", uncompletedTasksList, false);
-        uncompletedPane.setExpanded(true);
-        taskContainer.getChildren().add(uncompletedPane);
-        TitledPane completedPane = createTaskSection("已完成任务", completedTasksList, true);
-        completedPane.setExpanded(true);
-        taskContainer.getChildren().add(completedPane);
-        currentViewLabel.setText(currentView);
-    }
-    private TitledPane createTaskSection(String title, ObservableList<Task> tasks, boolean isCompleted) {
-        VBox content = new VBox(8);  // 增加任务项之间的间距
-        content.setPadding(new Insets(10, 15, 10, 15));  // 增加内边距
-        content.setStyle("-fx-background-color: transparent;");
-        // 添加任务项
-        tasks.forEach(task -> content.getChildren().add(createTaskItem(task)));
-        // 如果没有任务，添加提示文本
-        if (tasks.isEmpty()) {
-            Label emptyLabel = new Label(isCompleted ? "没有已完成的任务" : "没有待办任务");
-            emptyLabel.setStyle("-fx-text-fill: #999999; -fx-font-size: 14px;");
-            emptyLabel.setPadding(new Insets(10, 0, 10, 0));
-            content.getChildren().add(emptyLabel);
+    }
+    // 按当前视图建立实时投影：两个分区是源列表上的 FilteredList，源列表的增删只插入或移除受影响的行。
+    // 视图没变时只重新判断过滤条件，不重建投影
+    private void updateProjections() {
+        long start = System.nanoTime();
+        TaskList customList = null;
+        ObservableList<Task> uncompletedSource = FXCollections.emptyObservableList();
+        ObservableList<Task> completedSource = FXCollections.emptyObservableList();
+        String view = searchQuery.isEmpty() ? currentView : SEARCH_VIEW;
+        if (!searchQuery.isEmpty()) {
+            // 每次刷新重新查询，合并和改名后结果保持最新
+            long searchStart = System.nanoTime();
+            searchResults.setAll(repository.search(searchQuery, SEARCH_LIMIT));
+            if (METRICS) {
+                System.out.println("SEARCH q=" + searchQuery + " results=" + searchResults.size() + " ms="
+                        + String.format("%.2f", (System.nanoTime() - searchStart) / 1_000_000.0));
+            }
+            currentViewLabel.setText("搜索: " + searchQuery);
+            uncompletedSource = searchResults;
+            completedSource = searchResults;
+        } else {
+            switch (currentView) {
+                case "今天":
+                case "收集箱":
+                    uncompletedSource = repository.uncompleted();
+                    completedSource = repository.completed();
+                    break;
+                case "已完成":
+                    completedSource = repository.completed();
+                    break;
+                default:
+                    customList = repository.listByName(currentView);
+                    if (customList != null) {
+                        uncompletedSource = customList.getTasks();
+                        completedSource = customList.getTasks();
+                    }
+                    break;
+            }
         }
+        if (view.equals(projectedView) && customList == projectedList) {
+            uncompletedProjection.setPredicate(t -> !t.isCompleted());
+            completedProjection.setPredicate(Task::isCompleted);
+            return;
+        }
+        projectedView = view;
+        projectedList = customList;
+        uncompletedProjection = new FilteredList<>(uncompletedSource, t -> !t.isCompleted());
+        completedProjection = new FilteredList<>(completedSource, Task::isCompleted);
+        showSection(uncompletedPane, "未完成任务", uncompletedProjection);
+        showSection(completedPane, "已完成任务", completedProjection);
+        if (searchQuery.isEmpty()) currentViewLabel.setText(currentView);
+        if (METRICS) reportViewSwitch(start, uncompletedProjection.size() + completedProjection.size());
+    }
+    // 任务的完成状态原地改变（清单里的任务不会在列表间移动）：替换成自身，让投影只重新判断这一行
+    // 在复选框的绑定通知结束后再替换，避免单元格在通知过程中解绑
+    void taskCompletionChanged(Task task) {
+        TaskList list = task.getBelongsTo();
+        if (list == null || list != projectedList) return;
+        Platform.runLater(() -> {
+            int i = list.getTasks().indexOf(task);
+            if (i >= 0) list.getTasks().set(i, task);
+        });
+    }
+    @SuppressWarnings("unchecked")
+    private void showSection(TitledPane pane, String title, ObservableList<Task> tasks) {
+        ((ListView<Task>) pane.getContent()).setItems(tasks);
+        ((Label) pane.getGraphic()).textProperty().bind(Bindings.concat(title, " (", Bindings.size(tasks), ")"));
+    }
+    // 切换视图耗时：从开始刷新到布局完成；同时输出堆占用和场景中的节点数，便于比较不同任务量。
+    // 要遍历整个场景图，只在打开 METRICS 时调用
+    private void reportViewSwitch(long start, int tasks) {
+        Scene scene = taskContainer.getScene();
+        if (scene == null) return;
+        Runnable[] listener = new Runnable[1];
+        listener[0] = () -> {
+            scene.removePostLayoutPulseListener(listener[0]);
+            Runtime rt = Runtime.getRuntime();
+            System.out.println("VIEW switch-ms=" + TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start)
+                    + " view=" + projectedView + " tasks=" + tasks
+                    + " heap-mb=" + (rt.totalMemory() - rt.freeMemory()) / (1024 * 1024)
+                    + " nodes=" + countNodes(scene.getRoot()));
+        };
+        scene.addPostLayoutPulseListener(listener[0]);
+        Platform.requestNextPulse();
+    }
+    private static int countNodes(Node node) {
+        int count = 1;
+        if (node instanceof Parent) {
+            for (Node child : ((Parent) node).getChildrenUnmodifiable()) count += countNodes(child);
+        }
+        return count;
+    }
+    private TitledPane createTaskSection(String title, boolean isCompleted) {
+        ListView<Task> listView = new ListView<>();
+        listView.setCellFactory(v -> new TaskCell(this::deleteTask));
+        listView.setFixedCellSize(TaskCell.HEIGHT);
+        listView.setStyle("-fx-background-color: transparent; -fx-background-insets: 0; -fx-padding: 0 0 0 0;");
+        listView.setMaxHeight(Double.MAX_VALUE);
+        // 没有任务时的提示文本
+        Label emptyLabel = new Label(isCompleted ? "没有已完成的任务" : "没有待办任务");
+        emptyLabel.setStyle("-fx-text-fill: #999999; -fx-font-size: 14px;");
+        emptyLabel.setPadding(new Insets(10, 0, 10, 0));
+        listView.setPlaceholder(emptyLabel);
         // 设置标题样式
-        Label titleLabel = new Label(title + " (" + tasks.size() + ")");
+        Label titleLabel = new Label(title + " (0)");
         titleLabel.setStyle("-fx-font-weight: bold; -fx-font-size: 14px;");
         if (isCompleted) {
             titleLabel.setStyle(titleLabel.getStyle() + "; -fx-text-fill: #666666;");
@@ -502,86 +618,20 @@ public class MainBorderPane extends Application {
         // 创建TitledPane，不设置文本（因为我们使用Label作为graphic）
         TitledPane titledPane = new TitledPane();
         titledPane.setGraphic(titleLabel);
-        titledPane.setContent(content);
+        titledPane.setContent(listView);
+        titledPane.setExpanded(true);
+        titledPane.setMaxHeight(Double.MAX_VALUE);
         titledPane.getStyleClass().add("task-section");
         // 如果是已完成任务，添加completed样式类
         if (isCompleted) {
             titledPane.getStyleClass().add("completed");
-            // titleLabel.setStyle(titleLabel.getStyle() + "; -fx-text-fill: #666666;");
         }
-        // 添加展开/折叠动画效果
-        titledPane.expandedProperty().addListener((obs, oldVal, newVal) -> {
-            content.setVisible(newVal);
-            content.setManaged(newVal);
-        });
+        // 展开的分区平分剩余高度，折叠后只占标题高度
+        VBox.setVgrow(titledPane, Priority.ALWAYS);
+        titledPane.expandedProperty().addListener((obs, oldVal, newVal) ->
+                VBox.setVgrow(titledPane, newVal ? Priority.ALWAYS : Priority.NEVER));
         return titledPane;
     }
-
-    private HBox createTaskItem(Task task) {
-        HBox container = new HBox(15);
-        container.setAlignment(Pos.CENTER_LEFT);
-        container.setPadding(new Insets(10, 15, 10, 15));
-        container.setStyle("-fx-background-color: transparent;");
-        CheckBox checkBox = new CheckBox();
-        checkBox.setStyle("-fx-font-size: 14px;");
-        Label taskLabel = new Label();
-        taskLabel.setStyle("-fx-font-size: 14px;");
-        // 创建右侧容器并设置任务标签自动扩展
-        HBox rightContainer = new HBox(5);
-        rightContainer.getChildren().add(taskLabel);
-        rightContainer.setHgrow(taskLabel, Priority.ALWAYS);
-        // 创建删除按钮（统一文本为图标）
-        Button deleteBtn = new Button("删除");
-        deleteBtn.setStyle("-fx-background-color: transparent; -fx-text-fill: black; -fx-font-size: 14px; -fx-padding: 0 5px;");
-        deleteBtn.setOnAction(e -> {
-            deleteTask(task);
-            container.getChildren().remove(deleteBtn);
-        });
-        // 使用事件过滤器确保右键被捕获
-        container.addEventFilter(MouseEvent.MOUSE_CLICKED, event -> {
-            if (event.getButton() == MouseButton.SECONDARY) {
-                event.consume(); // 阻止事件传播
-                // 确保删除按钮只添加一次
-                if (!container.getChildren().contains(deleteBtn)) {
-                    // 移除其他任务项的删除按钮
-                    taskContainer.getChildren().forEach(node -> {
-                        if (node instanceof HBox) {
-                            HBox hbox = (HBox) node;
-                            hbox.getChildren().removeIf(child ->
-                                    child instanceof Button && ((Button) child).getText().equals("删除")
-                            );
-                        }
-                    });
-                    // 使用Region作为弹性间隔，将删除按钮推到最右侧
-                    Region spacer = new Region();
-                    HBox.setHgrow(spacer, Priority.ALWAYS);
-                    // 添加删除按钮到HBox尾部
-                    container.getChildren().addAll(spacer,deleteBtn);
-                    // 鼠标离开时隐藏按钮
-                    container.setOnMouseExited(e -> {
-                        container.getChildren().remove(deleteBtn);
-                    });
-                }
-            }
-        });
-        // 添加组件到HBox（确保任务标签占据空间）
-        container.getChildren().addAll(checkBox, rightContainer);
-        // 鼠标悬停效果
-        container.setOnMouseEntered(e ->
-                container.setStyle("-fx-background-color: #f8f8f8; -fx-background-radius: 5px;"));
-        container.setOnMouseExited(e ->
-                container.setStyle("-fx-background-color: transparent;"));
-        // 绑定数据
-        taskLabel.textProperty().bind(task.nameProperty());
-        checkBox.selectedProperty().bindBidirectional(task.completedProperty());
-        // 初始样式设置
-        if (task.isCompleted()) {
-            taskLabel.setStyle("-fx-font-size: 14px; -fx-text-fill: #888; -fx-strikethrough: true;");
-        } else {
-            taskLabel.setStyle("-fx-font-size: 14px; -fx-text-fill: #333;");
-        }
-        return container;
-    }
     private void deleteTask(Task task) {
         System.out.println("开始删除任务: " + task.getName() + " ID: " + task.getId() + " completed=" + task.isCompleted());
         
@@ -589,36 +639,18 @@ public class MainBorderPane extends Application {
         task.setDeleted(true);
         task.setLastModified(System.currentTimeMillis());
         
-        // 从所有列表中移除任务
-        if (task.isCompleted()) {
-            System.out.println("从已完成列表移除任务: " + task.getName());
-            completedTasks.remove(task);
-        } else {
-            System.out.println("从未完成列表移除任务: " + task.getName());
-            uncompletedTasks.remove(task);
-        }
-        
-        // 从所属清单中移除（如果有）
-        if (task.getBelongsTo() != null) {
-            System.out.println("从清单移除任务: " + task.getName() + " 清单: " + task.getBelongsTo().getName());
-            task.getBelongsTo().getTasks().remove(task);
-            if (!changedLists.contains(task.getBelongsTo())) {
-                changedLists.add(task.getBelongsTo());
-            }
-        }
-        
-        // 添加到已删除任务列表
-        if (!deletedTasks.contains(task)) {
+        // 从任务仓库移除，所在的视图（全局列表或所属清单）随之更新
+        TaskList list = task.getBelongsTo();
+        searchResults.remove(task);
+        if (repository.remove(task)) {
+            if (list != null) changedLists.mark(list);
+            // 添加到已删除任务列表
             deletedTasks.add(task);
             System.out.println("任务已添加到删除列表: " + task.getName() + " ID: " + task.getId() + " completed=" + task.isCompleted());
         }
         
-        // 刷新界面
-        refreshCurrentView();
-        
         // 标记数据已修改并同步
         markDataAsDirty();
-        syncToServer();
         
         System.out.println("当前已删除任务数: " + deletedTasks.size());
     }
@@ -667,7 +699,7 @@ public class MainBorderPane extends Application {
                 String name = listNameField.getText().trim();
                 if (!name.isEmpty()) {
                     // 检查名称是否为空或已存在
-                    if (TaskList.isNameExists(customLists, name)) {
+                    if (repository.listByName(name) != null) {
                         Alert alert = new Alert(Alert.AlertType.WARNING);
                         alert.setTitle("警告");
                         alert.setHeaderText(null);
@@ -678,11 +710,10 @@ public class MainBorderPane extends Application {
                     String color = colorComboBox.getValue();
                     LocalDate date = datePicker.getValue();
                     TaskList newList = new TaskList(name);
-                    customLists.add(newList);
+                    repository.addList(newList);
                     addChangedList(newList);
                     refreshCustomListsUI();
                     markDataAsDirty();
-                    syncToServer();
                 } else {
                     Alert alert = new Alert(Alert.AlertType.WARNING);
                     alert.setTitle("警告");
@@ -707,12 +738,10 @@ public class MainBorderPane extends Application {
         // 确定任务添加到哪个列表
         if (currentView.equals("今天") || currentView.equals("收集箱") || currentView.equals("已完成")) {
             // 全局任务列表
-            targetTasks = uncompletedTasks;
+            targetTasks = repository.uncompleted();
         } else {
             // 自定义清单
-            currentList = customLists.stream()
-                    .filter(list -> list.getName().equals(currentView))
-                    .findFirst().orElse(null);
+            currentList = repository.listByName(currentView);
             if (currentList == null) {
                 showAlert("错误", "无法找到目标清单");
                 return;
@@ -726,16 +755,12 @@ public class MainBorderPane extends Application {
         Task newTask = new Task(taskName);
         if (currentList != null) {
             newTask.setBelongsTo(currentList);
-            currentList.getTasks().add(newTask);
-            if (!changedLists.contains(currentList)) changedLists.add(currentList);
-        } else {
-            uncompletedTasks.add(newTask);
+            changedLists.mark(currentList);
         }
-        if (!changedTasks.contains(newTask)) changedTasks.add(newTask);
+        repository.add(newTask);
+        changedTasks.mark(newTask);
         taskInput.clear();
-        refreshCurrentView();
         markDataAsDirty();
-        syncToServer();
     }
     private void setupTaskInput() {
         taskInput.setOnAction(e -> {
@@ -743,135 +768,68 @@ public class MainBorderPane extends Application {
             addTaskToCurrentView(taskName);
         });
     }
-    private void setupPeriodicSync() {
-        if (!syncEnabled) return;
-        ScheduledExecutorService syncService = Executors.newSingleThreadScheduledExecutor();
-        syncService.scheduleAtFixedRate(
-            () -> {
-                if (isDataDirty) {
-                    syncWithServer();
-                }
-            },
-            3, // 初始延迟30秒
-            3, // 每30秒同步一次
-            TimeUnit.SECONDS
-        );
-    }
-    private void syncWithServer() {
-        if (!syncEnabled) return;
-        TaskSyncData syncData = new TaskSyncData(
-            new ArrayList<Task>(uncompletedTasks),
-            new ArrayList<>(deletedTasks),
-            new ArrayList<todoapp.TaskList>(customLists)
-        );
-        networkService.syncTasks(syncData)
-            .thenAccept(v -> {
-                Platform.runLater(() -> {
-                    System.out.println("数据已同步到服务器");
-                    isDataDirty = false;
-                    updateStatusLabel();
-                });
-            })
-            .exceptionally(e -> {
-                Platform.runLater(() -> {
-                    showAlert("同步失败", "无法同步数据到服务器: " + e.getMessage());
-                });
-                return null;
-            });
+    // 同步失败只更新状态栏，调度器会退避后自动重试，不再每次弹窗
+    private void handleNetworkError(Throwable error) {
+        isOnline.set(false);
+        syncStatus.set("同步失败，稍后自动重试: " + error.getMessage());
     }
-    private void handleNetworkData(TaskSyncData data) {
-        // 更新本地数据
-        updateLocalData(data);
-        // 更新同步状态
+    private void markOnline() {
+        isOnline.set(true);
         syncStatus.set("上次同步: " + LocalDateTime.now().format(
             DateTimeFormatter.ofPattern("HH:mm:ss")
         ));
-        isOnline.set(true);
     }
-    private void handleNetworkError(Throwable error) {
-        isOnline.set(false);
-        syncStatus.set("同步失败: " + error.getMessage());
-        // 显示错误提示
-        Platform.runLater(() -> {
-            Alert alert = new Alert(Alert.AlertType.ERROR);
-            alert.setTitle("同步错误");
-            alert.setHeaderText("无法与服务器同步");
-            alert.setContentText(error.getMessage());
-            alert.showAndWait();
-        });
-    }
-    private void updateLocalData(TaskSyncData data) {
-        Platform.runLater(() -> {
-            // 先恢复所有Task的JavaFX属性和监听器
-            for (Task t : data.getTasks()) {
-                t.restoreListener(this);
-            }
-            // 更新任务列表
-            uncompletedTasks.setAll(data.getTasks().stream()
-                .filter(task -> !task.isCompleted())
-                .collect(java.util.stream.Collectors.toList()));
-            completedTasks.setAll(data.getTasks().stream()
-                .filter(Task::isCompleted)
-                .collect(java.util.stream.Collectors.toList()));
-            customLists.setAll(data.getCustomLists());
-            // 刷新显示
-            refreshCurrentView();
-            refreshCustomListsUI();
-        });
-    }
-    // 在添加/修改/删除任务或清单时同步到服务器
-    private void syncToServer() {
-        if (!syncEnabled) return;
-        
-        // 收集所有任务，包括自定义清单中的任务
-        ArrayList<Task> allTasks = new ArrayList<>();
-        allTasks.addAll(uncompletedTasks);
-        allTasks.addAll(completedTasks);
-        
-        // 添加自定义清单中的任务
-        for (TaskList list : customLists) {
-            for (Task task : list.getTasks()) {
-                if (!allTasks.contains(task)) {
-                    allTasks.add(task);
-                }
+    // 把变更集移入发件箱（FX 线程）。发件箱落盘后由推送分批发送，服务端确认后才移除；
+    // 服务端按 lastModified 合并，清单成员由任务的清单ID决定，所以清单只带元数据。
+    // 发件箱落盘成功后才从变更集移除这一批，写入失败时留在变更集里，下次保存或推送时再写
+    private void recordOutgoing() {
+        if (changedTasks.isEmpty() && changedLists.isEmpty() && deletedTasks.isEmpty()) return;
+        ChangeSet.Batch<Task> taskBatch = changedTasks.batch();
+        ChangeSet.Batch<TaskList> listBatch = changedLists.batch();
+        List<Task> tasks = new ArrayList<>(taskBatch.items());
+        tasks.addAll(deletedTasks);
+        Set<Task> recordedDeletes = Collections.newSetFromMap(new IdentityHashMap<>());
+        recordedDeletes.addAll(deletedTasks);
+        dataManager.recordOutgoing(tasks, listBatch.items()).whenComplete((v, error) -> Platform.runLater(() -> {
+            if (error != null) {
+                isDataDirty = true;
+                updateStatusLabel();
+                return;
             }
-        }
-        
-        TaskSyncData delta = new TaskSyncData(
-            allTasks,
-            new ArrayList<>(deletedTasks),
-            new ArrayList<>(customLists)
-        );
-        
-        System.out.println("syncToServer ALL tasks: " + allTasks.size());
-        System.out.println("syncToServer Deleted tasks: " + deletedTasks.size());
-        
-        networkService.syncTasks(delta)
-            .thenAccept(v -> {
-                changedTasks.clear();
-                changedLists.clear();
-                deletedTasks.clear();
-                Platform.runLater(this::refreshCurrentView);
-            })
-            .exceptionally(error -> {
-                handleNetworkError(error);
-                Platform.runLater(this::refreshCurrentView);
-                return null;
-            });
+            changedTasks.acknowledge(taskBatch);
+            changedLists.acknowledge(listBatch);
+            deletedTasks.removeIf(recordedDeletes::contains);
+        }));
+    }
+    // 推送发件箱中的修改，由 SyncCoordinator 调度（FX 线程调用）
+    private CompletableFuture<Void> syncToServer() {
+        if (!syncEnabled) return CompletableFuture.completedFuture(null);
+        recordOutgoing();
+        // 每批推送的响应里带回服务端的其他变更，合并后不用再单独拉取
+        return dataManager.drainOutbox(delta -> networkService.exchange(delta).thenAccept(dataManager::mergeAndSave))
+            .thenRun(() -> Platform.runLater(this::markOnline));
+    }
+    // 把当前全部任务和清单标记为待推送
+    private void markAllChanged() {
+        for (Task t : repository.tasks()) changedTasks.mark(t);
+        for (TaskList list : repository.lists()) changedLists.mark(list);
     }
     // 在窗口关闭时关闭网络服务
     public void shutdown() {
         if (networkService != null) {
             networkService.shutdown();
         }
+        if (dataManager != null) {
+            dataManager.close();
+        }
     }
     // 任务状态变更时，加入变更集
     // 在Task.java的setCompleted等方法里调用MainBorderPane的addChangedTask(this)
     public void addChangedTask(Task task) {
-        if (!changedTasks.contains(task)) changedTasks.add(task);
+        changedTasks.mark(task);
     }
     public void addChangedList(TaskList list) {
-        if (!changedLists.contains(list)) changedLists.add(list);
+        changedLists.mark(list);
     }
     public static void main(String[] args) {
         launch(args);
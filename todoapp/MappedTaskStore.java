@@ -0,0 +1,555 @@
+package todoapp;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.TreeMap;
+import java.util.UUID;
+import java.util.zip.CRC32;
+// 内存映射的定长槽位存储，面向数十万任务的账户（-Dtodo.store=mapped 启用）。
+// 槽位文件：64 字节文件头 + 每个任务/清单一个 64 字节槽位（ID、标志、时间戳、清单ID、名称在字符串堆中的位置）；
+// 字符串堆文件：只追加的 UTF-8 名称。修改一个任务只改写它自己的槽位（名称变化时再追加一段字符串）。
+// 堆里的废弃字符串过多时整体压缩成下一代文件，旧一代在新一代落盘后删除
+public class MappedTaskStore implements TaskStorage {
+    private static final int MAGIC = 0x54444D31; // "TDM1"
+    private static final int VERSION = 1;
+    private static final int HEADER_SIZE = 64;
+    private static final int SLOT_SIZE = 64;
+    private static final int MIN_CAPACITY = 4096;
+    private static final long COMPACT_GARBAGE_BYTES = 4 * 1024 * 1024;
+    // 槽位标志
+    private static final int USED = 1;
+    private static final int LIST = 1 << 1;
+    private static final int COMPLETED = 1 << 2;
+    private static final int DELETED = 1 << 3;
+    private static final int IN_UNCOMPLETED = 1 << 4;
+    private static final int IN_COMPLETED = 1 << 5;
+    private static final int IN_LIST = 1 << 6;
+    private static final int HAS_LIST_ID = 1 << 7;
+    private static final int ID_IN_HEAP = 1 << 8;
+    private static final int LIST_ID_IN_HEAP = 1 << 9;
+    private static final int HAS_NAME = 1 << 10;
+    // 槽位内偏移：标志(2) 保留(2) 名称哈希(4) ID(16) 清单ID(16) 时间戳(8) 名称偏移(8) 名称长度(4) CRC(4)
+    private static final int FLAGS = 0;
+    private static final int NAME_HASH = 4;
+    private static final int ID = 8;
+    private static final int LIST_ID = 24;
+    private static final int LAST_MODIFIED = 40;
+    private static final int NAME_OFFSET = 48;
+    private static final int NAME_LENGTH = 56;
+    private static final int CRC = 60;
+    private final Path dir;
+    private final String prefix;
+    private long generation;
+    private FileChannel slotChannel;
+    private MappedByteBuffer slots;
+    private int capacity;
+    private int highWater;
+    private FileChannel heapChannel;
+    private long heapLength;
+    private long heapGarbage;
+    // ID -> 槽位号，任务和清单分开
+    private final Map<String, Integer> taskSlots = new HashMap<>();
+    private final Map<String, Integer> listSlots = new HashMap<>();
+    // 槽位号 -> 清单ID（复用同一个字符串实例），比对时不用解码槽位
+    private String[] slotListIds = new String[0];
+    private final Map<String, String> listIdPool = new HashMap<>();
+    private int[] freeSlots = new int[16];
+    private int freeCount;
+
+    public MappedTaskStore(Path dataFile) {
+        this.dir = dataFile.toAbsolutePath().getParent();
+        String name = dataFile.getFileName().toString();
+        this.prefix = (name.endsWith(".ser") ? name.substring(0, name.length() - 4) : name) + ".";
+    }
+
+    // 映射最新一代文件并按槽位还原任务和清单，不经过反序列化
+    @Override
+    public synchronized TaskData load() throws IOException {
+        Files.createDirectories(dir);
+        TreeMap<Long, Path> generations = generations();
+        Long current = null;
+        for (Long gen : generations.descendingKeySet()) {
+            if (isCommitted(generations.get(gen))) {
+                current = gen;
+                break;
+            }
+        }
+        generation = current == null ? 1 : current;
+        // 没有提交完成的代（压缩中途崩溃留下的）和旧代都删掉
+        for (Map.Entry<Long, Path> e : generations.entrySet()) {
+            if (current == null || e.getKey() != generation) deleteGeneration(e.getKey());
+        }
+        open(generation, current == null);
+        if (current == null) return null;
+        ByteBuffer heap = heapChannel.map(FileChannel.MapMode.READ_ONLY, 0, heapLength);
+        Map<String, TaskList> lists = new LinkedHashMap<>();
+        List<Integer> taskSlotOrder = new ArrayList<>();
+        List<String> taskIds = new ArrayList<>();
+        int used = 0;
+        for (int slot = 0; slot < capacity; slot++) {
+            int base = offset(slot);
+            int flags = slots.getShort(base + FLAGS) & 0xFFFF;
+            if ((flags & USED) == 0) continue;
+            if (!validSlot(base, flags)) {
+                System.err.println("本地映射存储槽位损坏，已丢弃: " + slot);
+                clearSlot(slot);
+                continue;
+            }
+            used = slot + 1;
+            String id = readId(base + ID, (flags & ID_IN_HEAP) != 0, heap);
+            if ((flags & LIST) != 0) {
+                listSlots.put(id, slot);
+                lists.put(id, new TaskList(id, readName(base, flags, heap), (flags & DELETED) != 0,
+                        slots.getLong(base + LAST_MODIFIED)));
+            } else {
+                taskSlots.put(id, slot);
+                if ((flags & HAS_LIST_ID) != 0) {
+                    slotListIds[slot] = intern(readId(base + LIST_ID, (flags & LIST_ID_IN_HEAP) != 0, heap));
+                }
+                taskSlotOrder.add(slot);
+                taskIds.add(id);
+            }
+        }
+        highWater = used;
+        for (int slot = highWater - 1; slot >= 0; slot--) {
+            if ((slots.getShort(offset(slot) + FLAGS) & USED) == 0) pushFree(slot);
+        }
+        List<Task> uncompleted = new ArrayList<>();
+        List<Task> completed = new ArrayList<>();
+        for (int i = 0; i < taskSlotOrder.size(); i++) {
+            int slot = taskSlotOrder.get(i);
+            int base = offset(slot);
+            int flags = slots.getShort(base + FLAGS) & 0xFFFF;
+            Task t = new Task(taskIds.get(i), readName(base, flags, heap), (flags & COMPLETED) != 0, (flags & DELETED) != 0,
+                    slots.getLong(base + LAST_MODIFIED));
+            t.setListId(slotListIds[slot]);
+            if ((flags & IN_UNCOMPLETED) != 0) uncompleted.add(t);
+            if ((flags & IN_COMPLETED) != 0) completed.add(t);
+            if ((flags & IN_LIST) != 0) {
+                TaskList list = lists.get(slotListIds[slot]);
+                if (list != null) {
+                    t.setBelongsTo(list);
+                    list.getTasks().add(t);
+                }
+            }
+        }
+        return new TaskData(uncompleted.toArray(new Task[0]), completed.toArray(new Task[0]),
+                lists.values().toArray(new TaskList[0]));
+    }
+
+    // 逐个比对快照与槽位，只改写变化的槽位；先让字符串堆落盘，再刷回改动过的槽位区间
+    @Override
+    public synchronized long save(Snapshot snapshot) throws IOException {
+        if (slots == null) load();
+        long heapBefore = heapLength;
+        int dirtyFrom = Integer.MAX_VALUE;
+        int dirtyTo = -1;
+        int dirtySlots = 0;
+        // 保持快照顺序，新任务按界面顺序分配槽位
+        Map<String, Integer> liveTasks = new LinkedHashMap<>();
+        Map<String, Task> taskById = new HashMap<>();
+        Map<String, String> memberOf = new HashMap<>();
+        collect(snapshot.uncompleted, IN_UNCOMPLETED, null, liveTasks, taskById, memberOf);
+        collect(snapshot.completed, IN_COMPLETED, null, liveTasks, taskById, memberOf);
+        Map<String, TaskList> liveLists = new LinkedHashMap<>();
+        for (int i = 0; i < snapshot.lists.size(); i++) {
+            TaskList l = snapshot.lists.get(i);
+            liveLists.put(l.getId(), l);
+            collect(snapshot.members.get(i), IN_LIST, l.getId(), liveTasks, taskById, memberOf);
+        }
+        for (TaskList l : liveLists.values()) {
+            int flags = USED | LIST | (l.isDeleted() ? DELETED : 0);
+            int slot = write(listSlots, l.getId(), flags, null, l.getName(), l.getLastModified());
+            if (slot >= 0) {
+                dirtyFrom = Math.min(dirtyFrom, slot);
+                dirtyTo = Math.max(dirtyTo, slot);
+                dirtySlots++;
+            }
+        }
+        for (Map.Entry<String, Integer> e : liveTasks.entrySet()) {
+            Task t = taskById.get(e.getKey());
+            String listId = memberOf.containsKey(t.getId()) ? memberOf.get(t.getId()) : t.getListId();
+            int flags = USED | e.getValue() | (t.isCompleted() ? COMPLETED : 0) | (t.isDeleted() ? DELETED : 0);
+            int slot = write(taskSlots, t.getId(), flags, listId, t.getName(), t.getLastModified());
+            if (slot >= 0) {
+                dirtyFrom = Math.min(dirtyFrom, slot);
+                dirtyTo = Math.max(dirtyTo, slot);
+                dirtySlots++;
+            }
+        }
+        for (Map<String, Integer> index : Arrays.asList(taskSlots, listSlots)) {
+            boolean isList = index == listSlots;
+            for (Iterator<Map.Entry<String, Integer>> it = index.entrySet().iterator(); it.hasNext(); ) {
+                Map.Entry<String, Integer> e = it.next();
+                if (isList ? liveLists.containsKey(e.getKey()) : liveTasks.containsKey(e.getKey())) continue;
+                it.remove();
+                int slot = e.getValue();
+                heapGarbage += heapBytes(offset(slot));
+                clearSlot(slot);
+                pushFree(slot);
+                dirtyFrom = Math.min(dirtyFrom, slot);
+                dirtyTo = Math.max(dirtyTo, slot);
+                dirtySlots++;
+            }
+        }
+        if (dirtyTo < 0) return 0;
+        if (heapLength > heapBefore) heapChannel.force(false);
+        // 区间内只有被改写的页会真正写盘
+        slots.force(offset(dirtyFrom), (dirtyTo - dirtyFrom + 1) * SLOT_SIZE);
+        long written = (heapLength - heapBefore) + (long) dirtySlots * SLOT_SIZE;
+        if (heapGarbage > COMPACT_GARBAGE_BYTES && heapGarbage > heapLength / 2) compact();
+        return written;
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        if (slotChannel != null) slotChannel.close();
+        if (heapChannel != null) heapChannel.close();
+        slotChannel = null;
+        heapChannel = null;
+        slots = null;
+    }
+
+    private static void collect(List<Task> source, int scope, String listId, Map<String, Integer> live,
+                                Map<String, Task> taskById, Map<String, String> memberOf) {
+        for (Task t : source) {
+            live.merge(t.getId(), scope, (a, b) -> a | b);
+            taskById.putIfAbsent(t.getId(), t);
+            if (listId != null) memberOf.putIfAbsent(t.getId(), listId);
+        }
+    }
+
+    // 槽位内容与期望不同时改写整个槽位，返回槽位号；没变化返回 -1
+    private int write(Map<String, Integer> index, String id, int flags, String listId, String name,
+                      long lastModified) throws IOException {
+        if (listId != null) flags |= HAS_LIST_ID;
+        if (name != null) flags |= HAS_NAME;
+        Integer existing = index.get(id);
+        int nameHash = name == null ? 0 : name.hashCode();
+        if (existing != null) {
+            int base = offset(existing);
+            int oldFlags = slots.getShort(base + FLAGS) & 0xFFFF;
+            boolean sameName = slots.getInt(base + NAME_HASH) == nameHash
+                    && (oldFlags & HAS_NAME) == (flags & HAS_NAME)
+                    && (slots.getLong(base + LAST_MODIFIED) == lastModified || name == null
+                        || name.equals(readName(base, oldFlags, null)));
+            if (sameName && (oldFlags & ~(ID_IN_HEAP | LIST_ID_IN_HEAP)) == flags
+                    && slots.getLong(base + LAST_MODIFIED) == lastModified
+                    && Objects.equals(slotListIds[existing], listId)) {
+                return -1;
+            }
+            if (!sameName) heapGarbage += slots.getInt(base + NAME_LENGTH);
+            writeSlot(existing, id, flags, listId, sameName ? null : name, nameHash, lastModified, !sameName);
+            return existing;
+        }
+        int slot = allocate();
+        index.put(id, slot);
+        writeSlot(slot, id, flags, listId, name, nameHash, lastModified, true);
+        return slot;
+    }
+
+    private void writeSlot(int slot, String id, int flags, String listId, String name, int nameHash,
+                           long lastModified, boolean writeName) throws IOException {
+        int base = offset(slot);
+        long nameOffset = slots.getLong(base + NAME_OFFSET);
+        int nameLength = slots.getInt(base + NAME_LENGTH);
+        if (writeName) {
+            if (name != null) {
+                byte[] bytes = name.getBytes(StandardCharsets.UTF_8);
+                nameOffset = appendHeap(bytes);
+                nameLength = bytes.length;
+            } else {
+                nameOffset = 0;
+                nameLength = 0;
+            }
+        }
+        // ID 没变时沿用原来的编码，避免重复把非 UUID 的 ID 追加进堆
+        boolean idUnchanged = (slots.getShort(base + FLAGS) & USED) != 0;
+        if (idUnchanged) {
+            flags |= slots.getShort(base + FLAGS) & ID_IN_HEAP;
+        } else {
+            flags |= writeId(base + ID, id) ? ID_IN_HEAP : 0;
+        }
+        if (listId != null) {
+            if (!listId.equals(slotListIds[slot]) || (slots.getShort(base + FLAGS) & HAS_LIST_ID) == 0) {
+                flags |= writeId(base + LIST_ID, listId) ? LIST_ID_IN_HEAP : 0;
+            } else {
+                flags |= slots.getShort(base + FLAGS) & LIST_ID_IN_HEAP;
+            }
+        }
+        slotListIds[slot] = intern(listId);
+        slots.putShort(base + FLAGS, (short) flags);
+        slots.putInt(base + NAME_HASH, nameHash);
+        slots.putLong(base + LAST_MODIFIED, lastModified);
+        slots.putLong(base + NAME_OFFSET, nameOffset);
+        slots.putInt(base + NAME_LENGTH, nameLength);
+        slots.putInt(base + CRC, slotCrc(base));
+    }
+
+    // 标准 UUID 直接存两个 long，其余 ID 追加到堆里存偏移和长度；返回是否存在堆里
+    private boolean writeId(int pos, String id) throws IOException {
+        Object key = ServerTask.keyOf(id);
+        if (key instanceof UUID) {
+            slots.putLong(pos, ((UUID) key).getMostSignificantBits());
+            slots.putLong(pos + 8, ((UUID) key).getLeastSignificantBits());
+            return false;
+        }
+        byte[] bytes = id.getBytes(StandardCharsets.UTF_8);
+        slots.putLong(pos, appendHeap(bytes));
+        slots.putLong(pos + 8, bytes.length);
+        return true;
+    }
+
+    private String readId(int pos, boolean inHeap, ByteBuffer heap) throws IOException {
+        long a = slots.getLong(pos);
+        long b = slots.getLong(pos + 8);
+        if (!inHeap) return new UUID(a, b).toString();
+        return readHeap(a, (int) b, heap);
+    }
+
+    private String readName(int base, int flags, ByteBuffer heap) throws IOException {
+        if ((flags & HAS_NAME) == 0) return null;
+        return readHeap(slots.getLong(base + NAME_OFFSET), slots.getInt(base + NAME_LENGTH), heap);
+    }
+
+    // heap 为 null 时直接从文件读（保存时偶尔比对名称用）
+    private String readHeap(long offset, int length, ByteBuffer heap) throws IOException {
+        byte[] bytes = new byte[length];
+        if (heap != null) {
+            heap.get((int) offset, bytes);
+        } else {
+            ByteBuffer buf = ByteBuffer.wrap(bytes);
+            while (buf.hasRemaining()) {
+                if (heapChannel.read(buf, offset + buf.position()) < 0) throw new IOException("字符串堆不完整");
+            }
+        }
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private long appendHeap(byte[] bytes) throws IOException {
+        long offset = heapLength;
+        ByteBuffer buf = ByteBuffer.wrap(bytes);
+        while (buf.hasRemaining()) heapChannel.write(buf, offset + buf.position());
+        heapLength += bytes.length;
+        return offset;
+    }
+
+    // 槽位在堆里占用的字节（释放时计入废弃量）
+    private long heapBytes(int base) {
+        int flags = slots.getShort(base + FLAGS) & 0xFFFF;
+        long bytes = slots.getInt(base + NAME_LENGTH);
+        if ((flags & ID_IN_HEAP) != 0) bytes += slots.getLong(base + ID + 8);
+        if ((flags & LIST_ID_IN_HEAP) != 0) bytes += slots.getLong(base + LIST_ID + 8);
+        return bytes;
+    }
+
+    // 校验和不符或引用了堆之外的数据，说明写槽位时崩溃
+    private boolean validSlot(int base, int flags) {
+        if (slots.getInt(base + CRC) != slotCrc(base)) return false;
+        if ((flags & HAS_NAME) != 0 && slots.getLong(base + NAME_OFFSET) + slots.getInt(base + NAME_LENGTH) > heapLength) return false;
+        if ((flags & ID_IN_HEAP) != 0 && slots.getLong(base + ID) + slots.getLong(base + ID + 8) > heapLength) return false;
+        if ((flags & LIST_ID_IN_HEAP) != 0 && slots.getLong(base + LIST_ID) + slots.getLong(base + LIST_ID + 8) > heapLength) return false;
+        return true;
+    }
+
+    private void clearSlot(int slot) {
+        int base = offset(slot);
+        for (int i = 0; i < SLOT_SIZE; i += 8) slots.putLong(base + i, 0);
+        slotListIds[slot] = null;
+    }
+
+    private int allocate() throws IOException {
+        if (freeCount > 0) return freeSlots[--freeCount];
+        if (highWater == capacity) grow(capacity * 2);
+        return highWater++;
+    }
+
+    private void pushFree(int slot) {
+        if (freeCount == freeSlots.length) freeSlots = Arrays.copyOf(freeSlots, freeCount * 2);
+        freeSlots[freeCount++] = slot;
+    }
+
+    private void grow(int newCapacity) throws IOException {
+        slots.force();
+        slots = slotChannel.map(FileChannel.MapMode.READ_WRITE, 0, HEADER_SIZE + (long) newCapacity * SLOT_SIZE);
+        capacity = newCapacity;
+        slotListIds = Arrays.copyOf(slotListIds, newCapacity);
+    }
+
+    // 把仍在使用的槽位连同名称写进下一代文件，提交后切换过去并删除旧一代
+    private void compact() throws IOException {
+        long start = System.nanoTime();
+        ByteBuffer heap = heapChannel.map(FileChannel.MapMode.READ_ONLY, 0, heapLength);
+        long next = generation + 1;
+        deleteGeneration(next);
+        Path nextSlots = slotFile(next);
+        Path nextHeap = heapFile(next);
+        int target = 0;
+        int newCapacity = Math.max(MIN_CAPACITY, Integer.highestOneBit(Math.max(1, taskSlots.size() + listSlots.size())) * 2);
+        String[] newListIds = new String[newCapacity];
+        Map<String, Integer> newTaskSlots = new HashMap<>();
+        Map<String, Integer> newListSlots = new HashMap<>();
+        long newHeapLength = 0;
+        try (FileChannel sc = FileChannel.open(nextSlots, StandardOpenOption.CREATE_NEW, StandardOpenOption.READ, StandardOpenOption.WRITE);
+             FileChannel hc = FileChannel.open(nextHeap, StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE);
+             OutputStream heapOut = new BufferedOutputStream(Channels.newOutputStream(hc), 1 << 16)) {
+            MappedByteBuffer out = sc.map(FileChannel.MapMode.READ_WRITE, 0, HEADER_SIZE + (long) newCapacity * SLOT_SIZE);
+            for (int slot = 0; slot < highWater; slot++) {
+                int base = offset(slot);
+                int flags = slots.getShort(base + FLAGS) & 0xFFFF;
+                if ((flags & USED) == 0) continue;
+                int dst = offset(target);
+                for (int i = 0; i < SLOT_SIZE; i += 8) out.putLong(dst + i, slots.getLong(base + i));
+                // 按新堆的位置重写名称和非 UUID 的 ID
+                if ((flags & HAS_NAME) != 0) {
+                    out.putLong(dst + NAME_OFFSET, newHeapLength);
+                    newHeapLength = copyHeap(heap, heapOut, slots.getLong(base + NAME_OFFSET),
+                            slots.getInt(base + NAME_LENGTH), newHeapLength);
+                }
+                if ((flags & ID_IN_HEAP) != 0) {
+                    out.putLong(dst + ID, newHeapLength);
+                    newHeapLength = copyHeap(heap, heapOut, slots.getLong(base + ID), (int) slots.getLong(base + ID + 8), newHeapLength);
+                }
+                if ((flags & LIST_ID_IN_HEAP) != 0) {
+                    out.putLong(dst + LIST_ID, newHeapLength);
+                    newHeapLength = copyHeap(heap, heapOut, slots.getLong(base + LIST_ID),
+                            (int) slots.getLong(base + LIST_ID + 8), newHeapLength);
+                }
+                out.putInt(dst + CRC, crc(out, dst));
+                String id = readId(base + ID, (flags & ID_IN_HEAP) != 0, heap);
+                ((flags & LIST) != 0 ? newListSlots : newTaskSlots).put(id, target);
+                newListIds[target] = slotListIds[slot];
+                target++;
+            }
+            heapOut.flush();
+            hc.force(true);
+            out.force();
+            // 文件头最后写，写完才算提交
+            out.putInt(0, MAGIC).putInt(4, VERSION);
+            out.force();
+        }
+        long oldHeapLength = heapLength;
+        close();
+        deleteGeneration(generation);
+        generation = next;
+        open(generation, false);
+        highWater = target;
+        taskSlots.clear();
+        taskSlots.putAll(newTaskSlots);
+        listSlots.clear();
+        listSlots.putAll(newListSlots);
+        slotListIds = Arrays.copyOf(newListIds, capacity);
+        freeCount = 0;
+        heapGarbage = 0;
+        System.out.println("本地映射存储已压缩，堆 " + oldHeapLength + " -> " + newHeapLength + " 字节，耗时 "
+                + (System.nanoTime() - start) / 1_000_000 + " ms");
+    }
+
+    // 把旧堆中的一段复制到新堆末尾，返回新堆长度
+    private static long copyHeap(ByteBuffer heap, OutputStream out, long srcOffset, int length, long dstOffset) throws IOException {
+        byte[] bytes = new byte[length];
+        heap.get((int) srcOffset, bytes);
+        out.write(bytes);
+        return dstOffset + length;
+    }
+
+    // 打开一代文件；create 为 true 时新建并写文件头
+    private void open(long gen, boolean create) throws IOException {
+        slotChannel = FileChannel.open(slotFile(gen), StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        heapChannel = FileChannel.open(heapFile(gen), StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        long size = slotChannel.size();
+        capacity = Math.max(MIN_CAPACITY, (int) ((size - HEADER_SIZE) / SLOT_SIZE));
+        slots = slotChannel.map(FileChannel.MapMode.READ_WRITE, 0, HEADER_SIZE + (long) capacity * SLOT_SIZE);
+        slotListIds = new String[capacity];
+        heapLength = heapChannel.size();
+        heapGarbage = 0;
+        freeCount = 0;
+        highWater = 0;
+        taskSlots.clear();
+        listSlots.clear();
+        listIdPool.clear();
+        if (create) {
+            slots.putInt(0, MAGIC).putInt(4, VERSION);
+            slots.force();
+        }
+    }
+
+    private boolean isCommitted(Path slotFile) throws IOException {
+        if (!Files.exists(heapFile(generationOf(slotFile))) || Files.size(slotFile) < HEADER_SIZE) return false;
+        try (FileChannel ch = FileChannel.open(slotFile, StandardOpenOption.READ)) {
+            ByteBuffer header = ByteBuffer.allocate(8);
+            while (header.hasRemaining() && ch.read(header) >= 0) { }
+            header.flip();
+            return header.remaining() == 8 && header.getInt() == MAGIC && header.getInt() == VERSION;
+        }
+    }
+
+    // 槽位文件按代号排序
+    private TreeMap<Long, Path> generations() throws IOException {
+        TreeMap<Long, Path> result = new TreeMap<>();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(dir, prefix + "*.slots")) {
+            for (Path p : stream) {
+                try {
+                    result.put(generationOf(p), p);
+                } catch (NumberFormatException e) {
+                    // 不是本存储的文件
+                }
+            }
+        }
+        return result;
+    }
+
+    private long generationOf(Path slotFile) {
+        String name = slotFile.getFileName().toString();
+        return Long.parseLong(name.substring(prefix.length(), name.length() - ".slots".length()));
+    }
+
+    private void deleteGeneration(long gen) throws IOException {
+        Files.deleteIfExists(slotFile(gen));
+        Files.deleteIfExists(heapFile(gen));
+    }
+
+    private Path slotFile(long gen) {
+        return dir.resolve(prefix + gen + ".slots");
+    }
+
+    private Path heapFile(long gen) {
+        return dir.resolve(prefix + gen + ".heap");
+    }
+
+    private String intern(String listId) {
+        return listId == null ? null : listIdPool.computeIfAbsent(listId, k -> k);
+    }
+
+    private static int offset(int slot) {
+        return HEADER_SIZE + slot * SLOT_SIZE;
+    }
+
+    private int slotCrc(int base) {
+        return crc(slots, base);
+    }
+
+    private static int crc(ByteBuffer buf, int base) {
+        CRC32 crc = new CRC32();
+        crc.update(buf.slice(base, CRC));
+        return (int) crc.getValue();
+    }
+}
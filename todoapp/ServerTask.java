@@ -0,0 +1,106 @@
+package todoapp;
+
+import java.io.Serializable;
+import java.util.UUID;
+// 服务端精简任务记录：不可变、不含 JavaFX 属性和监听器。
+// 标准 UUID 形式的ID直接存成两个 long，不另存 UUID 对象或字符串，ID字符串按需生成；标志位压成一个字节。
+// equals/hashCode 只看ID，存储直接用记录本身作 key
+public final class ServerTask implements Serializable {
+    private static final long serialVersionUID = 1L;
+    private static final byte COMPLETED = 1;
+    private static final byte DELETED = 1 << 1;
+    private final long msb;      // ID 是标准 UUID 时的高 64 位
+    private final long lsb;      // 低 64 位
+    private final String rawId;  // ID 不是标准 UUID 时保存原始字符串，否则为 null
+    private final String name;
+    private final String listId; // 由存储统一复用同一个字符串实例
+    private final long lastModified;
+    private final byte flags;
+
+    private ServerTask(long msb, long lsb, String rawId, String name, String listId, long lastModified, byte flags) {
+        this.msb = msb;
+        this.lsb = lsb;
+        this.rawId = rawId;
+        this.name = name;
+        this.listId = listId;
+        this.lastModified = lastModified;
+        this.flags = flags;
+    }
+
+    // 从客户端任务转换；listId 传入存储里复用的实例
+    static ServerTask from(Task t, String listId) {
+        byte flags = (byte) ((t.isCompleted() ? COMPLETED : 0) | (t.isDeleted() ? DELETED : 0));
+        return withId(t.getId(), t.getName(), listId, t.getLastModified(), flags);
+    }
+
+    // 只带ID的记录，用于按ID查找或定位排序位置
+    static ServerTask probe(String id) {
+        return withId(id, null, null, 0, (byte) 0);
+    }
+
+    private static ServerTask withId(String id, String name, String listId, long lastModified, byte flags) {
+        Object key = keyOf(id);
+        if (key instanceof UUID) {
+            UUID uuid = (UUID) key;
+            return new ServerTask(uuid.getMostSignificantBits(), uuid.getLeastSignificantBits(), null,
+                    name, listId, lastModified, flags);
+        }
+        return new ServerTask(0, 0, id, name, listId, lastModified, flags);
+    }
+
+    // 存储使用的 key：能还原成同一字符串的 UUID 用 UUID，否则用原字符串
+    static Object keyOf(String id) {
+        if (id != null && id.length() == 36) {
+            try {
+                UUID uuid = UUID.fromString(id);
+                if (uuid.toString().equals(id)) return uuid;
+            } catch (IllegalArgumentException e) {
+                // 不是 UUID，按字符串处理
+            }
+        }
+        return id;
+    }
+
+    public String getId() { return rawId != null ? rawId : new UUID(msb, lsb).toString(); }
+    public String getName() { return name; }
+    public String getListId() { return listId; }
+    public long getLastModified() { return lastModified; }
+    public boolean isCompleted() { return (flags & COMPLETED) != 0; }
+    public boolean isDeleted() { return (flags & DELETED) != 0; }
+
+    ServerTask asDeleted() {
+        return new ServerTask(msb, lsb, rawId, name, listId, lastModified, (byte) (flags | DELETED));
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (!(o instanceof ServerTask)) return false;
+        ServerTask t = (ServerTask) o;
+        return rawId == null ? t.rawId == null && msb == t.msb && lsb == t.lsb : rawId.equals(t.rawId);
+    }
+
+    @Override
+    public int hashCode() {
+        if (rawId != null) return rawId.hashCode();
+        long h = msb ^ lsb;
+        return (int) (h >> 32) ^ (int) h;
+    }
+
+    // 按ID排序：UUID 在前（与 UUID.compareTo 顺序一致），其余按字符串
+    static int compareIds(ServerTask a, ServerTask b) {
+        if (a.rawId == null) {
+            if (b.rawId != null) return -1;
+            int c = Long.compare(a.msb, b.msb);
+            return c != 0 ? c : Long.compare(a.lsb, b.lsb);
+        }
+        return b.rawId == null ? 1 : a.rawId.compareTo(b.rawId);
+    }
+
+    // 在边界处还原成客户端任务
+    Task toTask() {
+        Task t = new Task(getId(), name, isCompleted(), isDeleted(), lastModified);
+        t.setListId(listId);
+        return t;
+    }
+}
@@ -0,0 +1,36 @@
+package todoapp;
+
+import java.io.Serializable;
+import java.util.List;
+// 服务端精简清单记录：不可变，只有元数据，成员由存储的清单索引维护
+public final class ServerTaskList implements Serializable {
+    private static final long serialVersionUID = 1L;
+    private final String id;
+    private final String name;
+    private final boolean deleted;
+    private final long lastModified;
+
+    private ServerTaskList(String id, String name, boolean deleted, long lastModified) {
+        this.id = id;
+        this.name = name;
+        this.deleted = deleted;
+        this.lastModified = lastModified;
+    }
+
+    static ServerTaskList from(TaskList l) {
+        return new ServerTaskList(l.getId(), l.getName(), l.isDeleted(), l.getLastModified());
+    }
+
+    public String getId() { return id; }
+    public String getName() { return name; }
+    public boolean isDeleted() { return deleted; }
+    public long getLastModified() { return lastModified; }
+
+    // 在边界处还原成客户端清单，成员是已还原的任务
+    TaskList toTaskList(List<Task> members) {
+        TaskList l = new TaskList(id, name, deleted, lastModified);
+        for (Task t : members) t.setBelongsTo(l);
+        l.getTasks().setAll(members);
+        return l;
+    }
+}
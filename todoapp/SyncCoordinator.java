@@ -0,0 +1,217 @@
+package todoapp;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BooleanSupplier;
+import java.util.function.LongPredicate;
+import java.util.function.Supplier;
+// 客户端同步调度：统一负责本地保存、推送和拉取，替代原来各自独立的定时器。
+// 连续编辑在空闲一小段时间后合并成一次保存和推送；推送、拉取各自最多一个请求在途；
+// 服务端没有新数据或连不上时拉取间隔指数增长，推送失败按指数退避重试。所有状态只在调度线程上读写
+public class SyncCoordinator {
+    private static final long DEBOUNCE_MS = 500;
+    private static final long MAX_COALESCE_MS = 3_000;
+    private static final long PULL_BASE_MS = 5_000;
+    private static final long MAX_BACKOFF_MS = TimeUnit.MINUTES.toMillis(5);
+    private final ScheduledExecutorService executor = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread t = new Thread(r, "sync-coordinator");
+        t.setDaemon(true);
+        return t;
+    });
+    private final Runnable save;
+    private final Supplier<CompletableFuture<?>> push;
+    private final Supplier<CompletableFuture<Boolean>> pull;
+    private final BooleanSupplier streamConnected;
+    private final LongPredicate behind;
+    private boolean enabled = true;
+    // 待保存的本地修改
+    private boolean dirty;
+    private long firstDirtyAt;
+    private ScheduledFuture<?> flushTask;
+    // 推送
+    private boolean pushInFlight;
+    private boolean pushAgain;
+    private long pushBackoff;
+    private ScheduledFuture<?> pushRetry;
+    // 拉取
+    private boolean pullInFlight;
+    private boolean pullAgain;
+    // 推送期间收到的变更通知：推送的往返已带回其他变更，推送完成后按游标再判断是否还需要拉取
+    private long notifiedCursor;
+    private boolean pullAfterPush;
+    private long pullDelay = PULL_BASE_MS;
+    private ScheduledFuture<?> pullTask;
+    // 请求统计
+    private long pushes;
+    private long pulls;
+    private long skippedPulls; // 推送往返已带回变更而省掉的拉取
+    private final long startedAt = System.nanoTime();
+
+    // pull 的结果表示是否拉到了变更；streamConnected 为 true 时由推送通知触发拉取，不再轮询；
+    // behind 判断通知中的服务端游标是否还有本地没拿到的变更
+    public SyncCoordinator(Runnable save, Supplier<CompletableFuture<?>> push,
+                           Supplier<CompletableFuture<Boolean>> pull, BooleanSupplier streamConnected,
+                           LongPredicate behind) {
+        this.save = save;
+        this.push = push;
+        this.pull = pull;
+        this.streamConnected = streamConnected;
+        this.behind = behind;
+    }
+
+    public void start() {
+        submit(() -> schedulePull(PULL_BASE_MS, false));
+    }
+
+    // 本地数据有修改：防抖后保存并推送，一批连续修改最多延迟 MAX_COALESCE_MS
+    public void markDirty() {
+        submit(() -> {
+            long now = System.currentTimeMillis();
+            if (!dirty) {
+                dirty = true;
+                firstDirtyAt = now;
+            }
+            if (flushTask != null) flushTask.cancel(false);
+            long delay = Math.min(DEBOUNCE_MS, Math.max(0, firstDirtyAt + MAX_COALESCE_MS - now));
+            flushTask = executor.schedule(this::flush, delay, TimeUnit.MILLISECONDS);
+            // 用户在操作，拉取回到基础间隔
+            if (pullDelay > PULL_BASE_MS) {
+                pullDelay = PULL_BASE_MS;
+                if (!pullInFlight) schedulePull(pullDelay, false);
+            }
+        });
+    }
+
+    // 不经过保存直接推送一次（启动时推送待确认的变更）
+    public void requestPush() {
+        submit(() -> {
+            if (enabled) pushNow();
+        });
+    }
+
+    // 服务端通知有新变更（参数为服务端游标）。推送在途时先等推送的往返带回变更
+    public void requestPull(long cursor) {
+        submit(() -> {
+            notifiedCursor = Math.max(notifiedCursor, cursor);
+            if (pushInFlight) {
+                pullAfterPush = true;
+            } else if (pullInFlight) {
+                pullAgain = true;
+            } else {
+                schedulePull(0, true);
+            }
+        });
+    }
+
+    public void setEnabled(boolean enabled) {
+        submit(() -> {
+            this.enabled = enabled;
+            if (enabled) {
+                pushBackoff = 0;
+                pushNow();
+                pullDelay = PULL_BASE_MS;
+                if (!pullInFlight) schedulePull(0, true);
+            }
+        });
+    }
+
+    public void shutdown() {
+        executor.shutdownNow();
+    }
+
+    // 关闭后到达的调用（如退出保存时触发的任务监听）直接忽略，退出流程自己负责保存
+    private void submit(Runnable action) {
+        if (executor.isShutdown()) return;
+        try {
+            executor.execute(action);
+        } catch (RejectedExecutionException e) {
+            // 检查之后刚好被关闭
+        }
+    }
+
+    private void flush() {
+        flushTask = null;
+        if (!dirty) return;
+        dirty = false;
+        save.run();
+        if (enabled) pushNow();
+    }
+
+    private void pushNow() {
+        if (pushInFlight) {
+            pushAgain = true; // 在途请求取快照之后的修改需要再推一次
+            return;
+        }
+        if (pushRetry != null) return; // 退避重试时会带上最新数据
+        pushInFlight = true;
+        pushes++;
+        push.get().whenCompleteAsync((v, error) -> {
+            pushInFlight = false;
+            if (error != null) {
+                pushBackoff = pushBackoff == 0 ? 1_000 : Math.min(pushBackoff * 2, MAX_BACKOFF_MS);
+                System.err.println("推送失败，" + pushBackoff / 1000 + " 秒后重试: " + error.getMessage());
+                pushRetry = executor.schedule(() -> {
+                    pushRetry = null;
+                    if (enabled) pushNow();
+                }, pushBackoff, TimeUnit.MILLISECONDS);
+                if (pullAfterPush) {
+                    pullAfterPush = false;
+                    if (pullInFlight) pullAgain = true; else schedulePull(0, true);
+                }
+                return;
+            }
+            pushBackoff = 0;
+            if (pushAgain) {
+                pushAgain = false;
+                if (enabled) pushNow();
+            }
+            if (pullAfterPush) {
+                pullAfterPush = false;
+                if (behind.test(notifiedCursor)) {
+                    if (pullInFlight) pullAgain = true; else schedulePull(0, true);
+                } else {
+                    skippedPulls++;
+                }
+            }
+        }, executor);
+    }
+
+    private void schedulePull(long delay, boolean requested) {
+        if (pullTask != null) pullTask.cancel(false);
+        pullTask = executor.schedule(() -> pullNow(requested), delay, TimeUnit.MILLISECONDS);
+    }
+
+    // requested 为 true 表示服务端通知或重新启用同步；定时轮询在推送连接正常时不发请求，只检查连接状态
+    private void pullNow(boolean requested) {
+        pullTask = null;
+        if (!enabled || (!requested && streamConnected.getAsBoolean())) {
+            schedulePull(PULL_BASE_MS, false);
+            return;
+        }
+        pullInFlight = true;
+        pulls++;
+        pull.get().whenCompleteAsync((changed, error) -> {
+            pullInFlight = false;
+            if (error != null || !Boolean.TRUE.equals(changed)) {
+                pullDelay = Math.min(pullDelay * 2, MAX_BACKOFF_MS);
+            } else {
+                pullDelay = PULL_BASE_MS;
+            }
+            if (pullAgain) {
+                pullAgain = false;
+                schedulePull(0, true);
+            } else {
+                schedulePull(pullDelay, false);
+            }
+            if (MainBorderPane.METRICS) {
+                double minutes = Math.max(1.0 / 60, (System.nanoTime() - startedAt) / 60e9);
+                System.out.println(String.format("同步调度: 推送 %d 次，拉取 %d 次（%.2f 次/分钟），省掉拉取 %d 次，下次拉取间隔 %d 秒",
+                        pushes, pulls, (pushes + pulls) / minutes, skippedPulls, pullDelay / 1000));
+            }
+        }, executor);
+    }
+}
@@ -0,0 +1,327 @@
+package todoapp;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.function.BiConsumer;
+import java.util.zip.CRC32;
+// 服务端预写日志：按段追加写入带校验和的同步记录，批量 fsync（组提交），并管理压缩快照
+public class SyncJournal implements Closeable {
+    private static final String SEGMENT_PREFIX = "sync-";
+    private static final String SEGMENT_SUFFIX = ".log";
+    private static final String SNAPSHOT_FILE = "snapshot.dat";
+    private static final int MAX_BATCH = 1024;
+    private static final int MAX_RECORD_SIZE = 64 * 1024 * 1024;
+    private final Path dir;
+    private final LinkedBlockingQueue<PendingRecord> queue = new LinkedBlockingQueue<>();
+    private final PendingRecord closeMarker = new PendingRecord(null, null);
+    private Thread writer;
+    private FileChannel channel;
+    // 当前段中完整记录的长度；写入中途失败时 dirty 置位，下次追加前先截回这里
+    private long validSize;
+    private boolean dirty;
+    private long lastLsn;
+    private long recordsSinceSnapshot;
+
+    private static class PendingRecord {
+        final String userId;
+        final byte[] payload;
+        final CompletableFuture<Void> durable = new CompletableFuture<>();
+        PendingRecord(String userId, byte[] payload) {
+            this.userId = userId;
+            this.payload = payload;
+        }
+    }
+
+    public static class Snapshot {
+        public final long lsn;
+        public final byte[] state;
+        Snapshot(long lsn, byte[] state) {
+            this.lsn = lsn;
+            this.state = state;
+        }
+    }
+
+    public SyncJournal(Path dir) throws IOException {
+        this.dir = dir;
+        Files.createDirectories(dir);
+    }
+
+    // 读取最近一次快照，没有则返回 null
+    public Snapshot readSnapshot() throws IOException {
+        Path file = dir.resolve(SNAPSHOT_FILE);
+        if (!Files.exists(file)) return null;
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file)))) {
+            long lsn = in.readLong();
+            int crc = in.readInt();
+            byte[] state = new byte[in.readInt()];
+            in.readFully(state);
+            if (crc(state) != crc) {
+                throw new IOException("快照校验失败: " + file);
+            }
+            return new Snapshot(lsn, state);
+        }
+    }
+
+    // 重放 afterLsn 之后的所有完整记录，遇到损坏或不完整的尾部即停止；返回最后一条记录的 LSN
+    public long replay(long afterLsn, BiConsumer<String, byte[]> consumer) throws IOException {
+        long last = afterLsn;
+        for (Path segment : segments().values()) {
+            long validBytes = 0;
+            boolean torn = false;
+            try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(segment)))) {
+                while (true) {
+                    int len;
+                    try {
+                        len = in.readInt();
+                    } catch (EOFException e) {
+                        break;
+                    }
+                    if (len <= 0 || len > MAX_RECORD_SIZE) {
+                        System.err.println("同步日志尾部损坏，停止重放: " + segment);
+                        torn = true;
+                        break;
+                    }
+                    byte[] body = new byte[len];
+                    int crc;
+                    try {
+                        crc = in.readInt();
+                        in.readFully(body);
+                    } catch (EOFException e) {
+                        System.err.println("同步日志尾部不完整，停止重放: " + segment);
+                        torn = true;
+                        break;
+                    }
+                    if (crc(body) != crc) {
+                        System.err.println("同步日志校验失败，停止重放: " + segment);
+                        torn = true;
+                        break;
+                    }
+                    DataInputStream record = new DataInputStream(new ByteArrayInputStream(body));
+                    long lsn = record.readLong();
+                    String userId = record.readUTF();
+                    byte[] payload = record.readAllBytes();
+                    if (lsn > afterLsn) {
+                        consumer.accept(userId, payload);
+                    }
+                    last = Math.max(last, lsn);
+                    validBytes += 8 + len;
+                }
+            }
+            // 截掉未确认的残缺尾部，避免之后追加的记录跟在坏数据后面
+            if (torn) {
+                try (FileChannel fc = FileChannel.open(segment, StandardOpenOption.WRITE)) {
+                    fc.truncate(validBytes);
+                    fc.force(true);
+                }
+            }
+        }
+        return last;
+    }
+
+    // 恢复完成后打开新的日志段并启动写线程
+    public synchronized void open(long lastLsn) throws IOException {
+        this.lastLsn = lastLsn;
+        openSegment();
+        writer = new Thread(this::writeLoop, "sync-journal-writer");
+        writer.setDaemon(true);
+        writer.start();
+    }
+
+    // 把一条记录交给写线程，不等待落盘；记录按提交顺序分配 LSN。
+    // 返回的 future 在它和同批记录一起 fsync 后完成，用 awaitDurable 等待
+    public CompletableFuture<Void> submit(String userId, byte[] payload) {
+        PendingRecord record = new PendingRecord(userId, payload);
+        queue.add(record);
+        return record.durable;
+    }
+
+    // 阻塞直到 submit 返回的记录落盘。不可中断：放弃等待时记录仍可能落盘，
+    // 调用方会误以为写入失败而不应用它，内存和日志就不一致了
+    public static void awaitDurable(CompletableFuture<Void> durable) throws IOException {
+        try {
+            durable.join();
+        } catch (CompletionException e) {
+            throw new IOException("写入同步日志失败", e.getCause());
+        }
+    }
+
+    public synchronized long recordsSinceSnapshot() {
+        return recordsSinceSnapshot;
+    }
+
+    // 切换到新的日志段，返回切换前最后一条记录的 LSN（作为快照的截止点）。
+    // 先等此前提交的记录全部写完，调用方须保证期间没有新的提交，
+    // 否则已合并进内存的记录可能落到快照截止点之后
+    public long rotate() throws IOException {
+        PendingRecord flush = new PendingRecord(null, null);
+        queue.add(flush);
+        awaitDurable(flush.durable);
+        return rotateSegment();
+    }
+
+    private synchronized long rotateSegment() throws IOException {
+        repair();
+        channel.close();
+        openSegment();
+        recordsSinceSnapshot = 0;
+        return lastLsn;
+    }
+
+    // 原子写入快照（临时文件 + rename），然后删除已被快照覆盖的日志段
+    public void writeSnapshot(long lsn, byte[] state) throws IOException {
+        Path tmp = dir.resolve(SNAPSHOT_FILE + ".tmp");
+        try (FileChannel out = FileChannel.open(tmp, StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+            ByteBuffer header = ByteBuffer.allocate(16);
+            header.putLong(lsn).putInt(crc(state)).putInt(state.length).flip();
+            while (header.hasRemaining()) out.write(header);
+            ByteBuffer body = ByteBuffer.wrap(state);
+            while (body.hasRemaining()) out.write(body);
+            out.force(true);
+        }
+        Files.move(tmp, dir.resolve(SNAPSHOT_FILE), StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        for (Map.Entry<Long, Path> e : segments().entrySet()) {
+            if (e.getKey() < lsn) Files.deleteIfExists(e.getValue());
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (writer != null) {
+            queue.add(closeMarker);
+            try {
+                writer.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        synchronized (this) {
+            if (channel != null) channel.close();
+        }
+    }
+
+    private void writeLoop() {
+        List<PendingRecord> batch = new ArrayList<>();
+        boolean running = true;
+        while (running) {
+            try {
+                batch.add(queue.take());
+            } catch (InterruptedException e) {
+                break;
+            }
+            queue.drainTo(batch, MAX_BATCH - 1);
+            int end = batch.indexOf(closeMarker);
+            if (end >= 0) {
+                running = false;
+                batch.subList(end, batch.size()).clear();
+            }
+            try {
+                writeBatch(batch);
+                for (PendingRecord r : batch) r.durable.complete(null);
+            } catch (IOException e) {
+                System.err.println("写入同步日志失败: " + e.getMessage());
+                for (PendingRecord r : batch) r.durable.completeExceptionally(e);
+            }
+            batch.clear();
+        }
+        PendingRecord left;
+        while ((left = queue.poll()) != null) {
+            left.durable.completeExceptionally(new IOException("同步日志已关闭"));
+        }
+    }
+
+    // 一个批次只做一次 write + fsync。写入或落盘失败时把段截回失败前的长度，
+    // 否则后面确认过的记录会跟在残缺数据之后，恢复时在残缺处停止重放而被截掉。
+    // userId 为 null 的是 rotate 的刷新标记，不写入文件
+    private synchronized void writeBatch(List<PendingRecord> batch) throws IOException {
+        if (batch.isEmpty()) return;
+        repair();
+        ByteArrayOutputStream bos = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bos);
+        long lsn = lastLsn;
+        for (PendingRecord r : batch) {
+            if (r.userId == null) continue;
+            ByteArrayOutputStream bodyBytes = new ByteArrayOutputStream(r.payload.length + 32);
+            DataOutputStream body = new DataOutputStream(bodyBytes);
+            body.writeLong(++lsn);
+            body.writeUTF(r.userId);
+            body.write(r.payload);
+            byte[] b = bodyBytes.toByteArray();
+            out.writeInt(b.length);
+            out.writeInt(crc(b));
+            out.write(b);
+        }
+        ByteBuffer buf = ByteBuffer.wrap(bos.toByteArray());
+        dirty = true;
+        try {
+            while (buf.hasRemaining()) channel.write(buf);
+            channel.force(false);
+        } catch (IOException e) {
+            try {
+                repair();
+            } catch (IOException ignored) {
+                // 截断也失败时保持 dirty，下一批写入前会再试，成功之前不接受新的追加
+            }
+            throw e;
+        }
+        dirty = false;
+        validSize += buf.limit();
+        recordsSinceSnapshot += lsn - lastLsn;
+        lastLsn = lsn;
+    }
+
+    private void openSegment() throws IOException {
+        Path segment = dir.resolve(SEGMENT_PREFIX + String.format("%020d", lastLsn + 1) + SEGMENT_SUFFIX);
+        channel = FileChannel.open(segment, StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+        validSize = channel.size();
+        dirty = false;
+    }
+
+    // 去掉上次失败写入留下的残缺尾部
+    private void repair() throws IOException {
+        if (!dirty) return;
+        channel.truncate(validSize);
+        channel.force(false);
+        dirty = false;
+    }
+
+    // 日志段按起始 LSN 排序；key 为该段之前的最后一个 LSN
+    private TreeMap<Long, Path> segments() throws IOException {
+        TreeMap<Long, Path> result = new TreeMap<>();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(dir, SEGMENT_PREFIX + "*" + SEGMENT_SUFFIX)) {
+            for (Path p : stream) {
+                String name = p.getFileName().toString();
+                String num = name.substring(SEGMENT_PREFIX.length(), name.length() - SEGMENT_SUFFIX.length());
+                result.put(Long.parseLong(num) - 1, p);
+            }
+        }
+        return result;
+    }
+
+    private static int crc(byte[] data) {
+        CRC32 crc = new CRC32();
+        crc.update(data);
+        return (int) crc.getValue();
+    }
+}
@@ -0,0 +1,97 @@
+package todoapp;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicLong;
+// 同步请求去重表：按用户和客户端生成的请求ID记下处理结果。响应丢失后客户端重发同一个请求时，
+// 直接返回记下的结果，不再反序列化和合并；原请求还在处理时，由调用方让重发的请求稍后再来。
+// 条目数有上限，超过存活时间或上限时从最早的开始淘汰
+@Component
+public class SyncRequestDedupe {
+    private final int maxEntries;
+    private final long ttlMillis;
+    private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<>();
+    private final AtomicLong replays = new AtomicLong();
+    private final AtomicLong evictions = new AtomicLong();
+
+    private static class Entry {
+        final long createdAt;
+        final CompletableFuture<Integer> outcome = new CompletableFuture<>();
+        Entry(long createdAt) {
+            this.createdAt = createdAt;
+        }
+    }
+
+    public SyncRequestDedupe(
+            @Value("${todo.server.dedupe-entries:10000}") int maxEntries,
+            @Value("${todo.server.dedupe-ttl-seconds:600}") long ttlSeconds
+    ) {
+        this.maxEntries = maxEntries;
+        this.ttlMillis = ttlSeconds * 1000;
+    }
+
+    // 首次出现返回 null，调用方处理完后必须调用 complete 或 abandon；
+    // 否则返回之前（或正在进行）的处理结果（HTTP 状态码）
+    public CompletableFuture<Integer> claim(String userId, String requestId) {
+        String key = key(userId, requestId);
+        long now = System.currentTimeMillis();
+        synchronized (this) {
+            evict(now);
+            Entry e = entries.get(key);
+            if (e != null) {
+                replays.incrementAndGet();
+                return e.outcome;
+            }
+            entries.put(key, new Entry(now));
+            return null;
+        }
+    }
+
+    public void complete(String userId, String requestId, int status) {
+        Entry e;
+        synchronized (this) {
+            e = entries.get(key(userId, requestId));
+        }
+        if (e != null) e.outcome.complete(status);
+    }
+
+    // 处理失败：移除条目，客户端用同一个ID重试时重新处理
+    public void abandon(String userId, String requestId, Throwable error) {
+        Entry e;
+        synchronized (this) {
+            e = entries.remove(key(userId, requestId));
+        }
+        if (e != null) e.outcome.completeExceptionally(error);
+    }
+
+    public synchronized Map<String, Long> stats() {
+        Map<String, Long> stats = new LinkedHashMap<>();
+        stats.put("replays", replays.get());
+        stats.put("evictions", evictions.get());
+        stats.put("entries", (long) entries.size());
+        stats.put("maxEntries", (long) maxEntries);
+        return stats;
+    }
+
+    // 按插入顺序淘汰过期或超出上限的条目；还在处理中的条目跳过，继续淘汰它后面已完成的，
+    // 卡住的请求不会让表无限增长（最多多出正在处理的条数）
+    private void evict(long now) {
+        Iterator<Entry> it = entries.values().iterator();
+        while (it.hasNext()) {
+            Entry e = it.next();
+            boolean expired = now - e.createdAt > ttlMillis;
+            if (!expired && entries.size() < maxEntries) break;
+            if (!e.outcome.isDone()) continue;
+            it.remove();
+            evictions.incrementAndGet();
+        }
+    }
+
+    private static String key(String userId, String requestId) {
+        return userId + '\n' + requestId;
+    }
+}
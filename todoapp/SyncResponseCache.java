@@ -0,0 +1,88 @@
+package todoapp;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+// 全量响应的序列化结果缓存：按用户和编码格式缓存字节，版本（变更游标）不一致即视为失效；
+// 总字节数有上限，超出时按 LRU 淘汰
+@Component
+public class SyncResponseCache {
+    private final long maxBytes;
+    private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+    private long totalBytes;
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong evictions = new AtomicLong();
+
+    private static class Entry {
+        final long version;
+        final byte[] body;
+        Entry(long version, byte[] body) {
+            this.version = version;
+            this.body = body;
+        }
+    }
+
+    public SyncResponseCache(@Value("${todo.server.response-cache-bytes:67108864}") long maxBytes) {
+        this.maxBytes = maxBytes;
+    }
+
+    // 命中返回缓存的字节，否则返回 null
+    public byte[] get(String userId, boolean binary, long version) {
+        Entry e;
+        synchronized (this) {
+            e = entries.get(key(userId, binary));
+        }
+        if (e != null && e.version == version) {
+            hits.incrementAndGet();
+            return e.body;
+        }
+        misses.incrementAndGet();
+        return null;
+    }
+
+    public synchronized void put(String userId, boolean binary, long version, byte[] body) {
+        if (body.length > maxBytes) return;
+        String key = key(userId, binary);
+        Entry old = entries.get(key);
+        // 并发请求可能晚到一个旧版本，不覆盖更新的结果
+        if (old != null && old.version > version) return;
+        if (old != null) totalBytes -= old.body.length;
+        entries.put(key, new Entry(version, body));
+        totalBytes += body.length;
+        Iterator<Map.Entry<String, Entry>> it = entries.entrySet().iterator();
+        while (totalBytes > maxBytes && it.hasNext()) {
+            Map.Entry<String, Entry> eldest = it.next();
+            if (eldest.getKey().equals(key)) continue;
+            totalBytes -= eldest.getValue().body.length;
+            it.remove();
+            evictions.incrementAndGet();
+        }
+    }
+
+    // 同步提交后调用，丢弃该用户所有格式的缓存
+    public synchronized void invalidate(String userId) {
+        for (boolean binary : new boolean[]{true, false}) {
+            Entry old = entries.remove(key(userId, binary));
+            if (old != null) totalBytes -= old.body.length;
+        }
+    }
+
+    public synchronized Map<String, Long> stats() {
+        Map<String, Long> stats = new LinkedHashMap<>();
+        stats.put("hits", hits.get());
+        stats.put("misses", misses.get());
+        stats.put("evictions", evictions.get());
+        stats.put("entries", (long) entries.size());
+        stats.put("bytes", totalBytes);
+        stats.put("maxBytes", maxBytes);
+        return stats;
+    }
+
+    private static String key(String userId, boolean binary) {
+        return (binary ? "b:" : "j:") + userId;
+    }
+}
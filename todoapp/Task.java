@@ -10,6 +10,7 @@ import java.io.IOException;
 import java.io.ObjectInputStream;
 import java.io.ObjectOutputStream;
 import java.io.Serializable;
+import java.util.Map;
 import java.util.UUID;
 public class Task implements Serializable {
     private static final long serialVersionUID = 1L;
@@ -22,8 +23,10 @@ public class Task implements Serializable {
     private transient StringProperty nameProperty;
     private transient BooleanProperty completedProperty;
     private transient ChangeListener<Boolean> completionListener;
-    // 任务所属的清单（null表示全局任务）
-    private TaskList belongsTo;
+    // 任务所属的清单ID（null表示全局任务），只持久化和传输ID
+    private String listId;
+    // 所属清单的对象引用，加载后按ID解析，不参与序列化
+    private transient TaskList belongsTo;
     // 检查任务名称是否已存在于清单中
     public static boolean isNameExists(ObservableList<Task> tasks, String name) {
         return tasks.stream()
@@ -35,20 +38,32 @@ public class Task implements Serializable {
         this.completed = false;
         this.deleted = false;
         this.lastModified = System.currentTimeMillis();
-        restoreFX();
+    }
+    // 按已有字段还原任务（解码时使用，不生成新ID）
+    Task(String id, String name, boolean completed, boolean deleted, long lastModified) {
+        this.id = id;
+        this.name = name;
+        this.completed = completed;
+        this.deleted = deleted;
+        this.lastModified = lastModified;
     }
 
+    // JavaFX属性按需创建：只在界面绑定时才分配，解码和服务端边界转换不产生属性和监听器
     public void restoreFX() {
-        if (nameProperty == null) nameProperty = new SimpleStringProperty(name);
-        if (completedProperty == null) completedProperty = new SimpleBooleanProperty(completed);
-        nameProperty.addListener((obs, oldVal, newVal) -> {
-            this.name = newVal;
-            this.lastModified = System.currentTimeMillis();
-        });
-        completedProperty.addListener((obs, oldVal, newVal) -> {
-            this.completed = newVal;
-            this.lastModified = System.currentTimeMillis();
-        });
+        if (nameProperty == null) {
+            nameProperty = new SimpleStringProperty(name);
+            nameProperty.addListener((obs, oldVal, newVal) -> {
+                this.name = newVal;
+                this.lastModified = System.currentTimeMillis();
+            });
+        }
+        if (completedProperty == null) {
+            completedProperty = new SimpleBooleanProperty(completed);
+            completedProperty.addListener((obs, oldVal, newVal) -> {
+                this.completed = newVal;
+                this.lastModified = System.currentTimeMillis();
+            });
+        }
     }
 
     public String getId() { return id; }
@@ -61,6 +76,8 @@ public class Task implements Serializable {
         if (nameProperty != null) nameProperty.set(name);
         this.lastModified = System.currentTimeMillis();
         notifyChanged();
+        MainBorderPane main = MainBorderPane.getInstance();
+        if (main != null) main.repository.nameChanged(this);
     }
     public void setCompleted(boolean completed) {
         this.completed = completed;
@@ -77,15 +94,48 @@ public class Task implements Serializable {
         notifyChanged();
     }
     public void setLastModified(long ts) { this.lastModified = ts; }
+    // 合并远程的名称：同步界面属性，保留原时间戳，不记为本地修改（由调用方写入远程的时间戳）
+    void mergeName(String value) {
+        long ts = lastModified;
+        this.name = value;
+        if (nameProperty != null) nameProperty.set(value); // 属性监听器会刷新时间戳，下面还原
+        this.lastModified = ts;
+    }
+    // 合并远程的完成状态：同步界面属性，但不触发本地修改的监听（不移动列表、不记为本地修改）
+    void mergeCompleted(boolean value) {
+        this.completed = value;
+        if (completedProperty != null && completedProperty.get() != value) {
+            if (completionListener != null) completedProperty.removeListener(completionListener);
+            completedProperty.set(value);
+            if (completionListener != null) completedProperty.addListener(completionListener);
+        }
+    }
     public StringProperty nameProperty() { if (nameProperty == null) restoreFX(); return nameProperty; }
     public BooleanProperty completedProperty() { if (completedProperty == null) restoreFX(); return completedProperty; }
     // 设置和获取所属清单
     public void setBelongsTo(TaskList list) {
         this.belongsTo = list;
+        this.listId = list == null ? null : list.getId();
     }
     public TaskList getBelongsTo() {
         return belongsTo;
     }
+    public String getListId() {
+        return listId;
+    }
+    void setListId(String listId) {
+        this.listId = listId;
+        if (belongsTo != null && !belongsTo.getId().equals(listId)) belongsTo = null;
+    }
+    // 按清单ID索引把任务重新挂到清单对象上
+    public static void resolveBelongsTo(Iterable<Task> tasks, Map<String, TaskList> listsById) {
+        for (Task t : tasks) {
+            if (t.listId != null) {
+                TaskList list = listsById.get(t.listId);
+                if (list != null) t.belongsTo = list;
+            }
+        }
+    }
     // 自定义序列化方法
     private void writeObject(ObjectOutputStream out) throws IOException {
         out.defaultWriteObject();
@@ -100,33 +150,20 @@ public class Task implements Serializable {
         completed = in.readBoolean();
         deleted = in.readBoolean();
         lastModified = in.readLong();
-        restoreFX();
     }
     public void restoreListener(MainBorderPane mainApp) {
         // 如果属性为null，先初始化
-        if (this.nameProperty == null) {
-            this.nameProperty = new SimpleStringProperty(this.getName());
-        }
-        if (this.completedProperty == null) {
-            // 尝试用已有get方法获取原始状态，默认为false
-            this.completedProperty = new SimpleBooleanProperty(this.isCompleted());
-        }
+        restoreFX();
         // 移除旧监听器（避免重复）
         if (completionListener != null) {
             this.completedProperty.removeListener(completionListener);
         }
         // 添加新监听器
         completionListener = (obs, oldVal, newVal) -> {
-            if (newVal) {
-                mainApp.completedTasks.add(this);
-                this.completed = true;
-                mainApp.uncompletedTasks.remove(this);
-            } else {
-                mainApp.uncompletedTasks.add(this);
-                this.completed = false;
-                mainApp.completedTasks.remove(this);
-            }
-            mainApp.refreshCurrentView();
+            this.completed = newVal;
+            mainApp.repository.completionChanged(this);
+            mainApp.addChangedTask(this);
+            mainApp.taskCompletionChanged(this);
             mainApp.markDataAsDirty();
         };
         this.completedProperty.addListener(completionListener);
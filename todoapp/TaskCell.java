@@ -0,0 +1,90 @@
+package todoapp;
+
+import java.util.function.Consumer;
+import javafx.geometry.Insets;
+import javafx.geometry.Pos;
+import javafx.scene.control.Button;
+import javafx.scene.control.CheckBox;
+import javafx.scene.control.ContentDisplay;
+import javafx.scene.control.Label;
+import javafx.scene.control.ListCell;
+import javafx.scene.input.MouseButton;
+import javafx.scene.input.MouseEvent;
+import javafx.scene.layout.HBox;
+import javafx.scene.layout.Priority;
+import javafx.scene.layout.Region;
+// 任务行：ListView 只为可见的行创建单元格，滚动时复用单元格并重新绑定到新的任务，
+// 任务再多界面上的节点数也只和可见行数有关
+public class TaskCell extends ListCell<Task> {
+    static final double HEIGHT = 44;
+    private static final String NORMAL_STYLE = "-fx-background-color: transparent;";
+    private static final String HOVER_STYLE = "-fx-background-color: #f8f8f8; -fx-background-radius: 5px;";
+    private final HBox container = new HBox(15);
+    private final CheckBox checkBox = new CheckBox();
+    private final Label taskLabel = new Label();
+    private final Button deleteBtn = new Button("删除");
+    private Task bound; // 当前绑定的任务，复用前解绑
+
+    public TaskCell(Consumer<Task> onDelete) {
+        container.setAlignment(Pos.CENTER_LEFT);
+        container.setPadding(new Insets(10, 15, 10, 15));
+        checkBox.setStyle("-fx-font-size: 14px;");
+        taskLabel.setStyle("-fx-font-size: 14px;");
+        deleteBtn.setStyle("-fx-background-color: transparent; -fx-text-fill: black; -fx-font-size: 14px; -fx-padding: 0 5px;");
+        deleteBtn.setOnAction(e -> {
+            Task task = bound;
+            hideDelete();
+            if (task != null) onDelete.accept(task);
+        });
+        // 使用Region作为弹性间隔，将删除按钮推到最右侧
+        Region spacer = new Region();
+        HBox.setHgrow(spacer, Priority.ALWAYS);
+        container.getChildren().addAll(checkBox, taskLabel, spacer, deleteBtn);
+        hideDelete();
+        // 右键显示删除按钮，鼠标离开时隐藏
+        addEventFilter(MouseEvent.MOUSE_CLICKED, event -> {
+            if (event.getButton() == MouseButton.SECONDARY && bound != null) {
+                event.consume();
+                deleteBtn.setVisible(true);
+                deleteBtn.setManaged(true);
+            }
+        });
+        setOnMouseEntered(e -> { if (bound != null) setStyle(HOVER_STYLE); });
+        setOnMouseExited(e -> {
+            setStyle(NORMAL_STYLE);
+            hideDelete();
+        });
+        setStyle(NORMAL_STYLE);
+        setContentDisplay(ContentDisplay.GRAPHIC_ONLY);
+    }
+
+    @Override
+    protected void updateItem(Task task, boolean empty) {
+        super.updateItem(task, empty);
+        if (bound != null) {
+            taskLabel.textProperty().unbind();
+            checkBox.selectedProperty().unbindBidirectional(bound.completedProperty());
+            bound = null;
+        }
+        hideDelete();
+        if (empty || task == null) {
+            setGraphic(null);
+            return;
+        }
+        bound = task;
+        // 绑定数据
+        taskLabel.textProperty().bind(task.nameProperty());
+        checkBox.selectedProperty().bindBidirectional(task.completedProperty());
+        if (task.isCompleted()) {
+            taskLabel.setStyle("-fx-font-size: 14px; -fx-text-fill: #888; -fx-strikethrough: true;");
+        } else {
+            taskLabel.setStyle("-fx-font-size: 14px; -fx-text-fill: #333;");
+        }
+        setGraphic(container);
+    }
+
+    private void hideDelete() {
+        deleteBtn.setVisible(false);
+        deleteBtn.setManaged(false);
+    }
+}
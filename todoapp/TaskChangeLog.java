@@ -0,0 +1,96 @@
+package todoapp;
+
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+// 每个用户的变更序号日志：给被服务端接受的任务、清单、删除标记打上单调递增的序号
+public class TaskChangeLog implements Serializable {
+    private static final long serialVersionUID = 1L;
+    static final int TASK = 0;
+    static final int LIST = 1;
+    static final int DELETED = 2;
+    private long seq;
+    // 每类实体当前的序号（key 为实体在存储中的 key）；可由 changesBySeq 重建，不参与序列化
+    private transient Map<Object, Long> taskSeqs = new HashMap<>();
+    private transient Map<Object, Long> listSeqs = new HashMap<>();
+    private transient Map<Object, Long> deletedSeqs = new HashMap<>();
+    // 序号 -> 实体，只保留每个实体最新的一条
+    private final TreeMap<Long, Change> changesBySeq = new TreeMap<>();
+
+    static class Change implements Serializable {
+        private static final long serialVersionUID = 1L;
+        final int kind;
+        final Object entity;
+        Change(int kind, Object entity) {
+            this.kind = kind;
+            this.entity = entity;
+        }
+    }
+
+    public synchronized long stamp(int kind, Object key, Object entity) {
+        long next = ++seq;
+        // 先移除再放入，key 换成调用方传入的新对象（任务记录作 key 时不保留旧版本）
+        Long old = seqs(kind).remove(key);
+        seqs(kind).put(key, next);
+        if (old != null) changesBySeq.remove(old);
+        changesBySeq.put(next, new Change(kind, entity));
+        return next;
+    }
+
+    // 持久化用的副本：只复制参与序列化的字段，变更记录本身不可变，直接共享
+    synchronized TaskChangeLog copy() {
+        TaskChangeLog c = new TaskChangeLog();
+        c.seq = seq;
+        c.changesBySeq.putAll(changesBySeq);
+        return c;
+    }
+
+    private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+        in.defaultReadObject();
+        taskSeqs = new HashMap<>();
+        listSeqs = new HashMap<>();
+        deletedSeqs = new HashMap<>();
+        // changesBySeq 里每个实体恰好一条最新记录，与序号表一一对应
+        for (Map.Entry<Long, Change> e : changesBySeq.entrySet()) {
+            Change c = e.getValue();
+            Object key = c.kind == LIST ? ((ServerTaskList) c.entity).getId() : c.entity;
+            seqs(c.kind).put(key, e.getKey());
+        }
+    }
+
+    private Map<Object, Long> seqs(int kind) {
+        switch (kind) {
+            case TASK: return taskSeqs;
+            case LIST: return listSeqs;
+            case DELETED: return deletedSeqs;
+            default: throw new IllegalArgumentException("未知的变更类型: " + kind);
+        }
+    }
+
+    public synchronized long currentSeq() {
+        return seq;
+    }
+
+    // 返回游标之后的变更（不含游标本身），按序号排列
+    synchronized List<Change> changesSince(long since) {
+        return new ArrayList<>(changesBySeq.tailMap(since, false).values());
+    }
+
+    // 游标 since 之后、upTo（含）之前的变更，跳过序号在 (skipFrom, skipTo] 内的（调用方自己刚提交的）；
+    // 每个实体只保留最新一条，之后被别人改过的实体序号已不在这个范围内，仍会返回
+    synchronized List<Change> changesSince(long since, long upTo, long skipFrom, long skipTo) {
+        List<Change> result = new ArrayList<>();
+        if (upTo <= since) return result;
+        for (Map.Entry<Long, Change> e : changesBySeq.subMap(since, false, upTo, true).entrySet()) {
+            long s = e.getKey();
+            if (s > skipFrom && s <= skipTo) continue;
+            result.add(e.getValue());
+        }
+        return result;
+    }
+}
@@ -0,0 +1,108 @@
+package todoapp;
+
+import org.springframework.stereotype.Component;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import jakarta.annotation.PreDestroy;
+// 服务端推送：每个 userId 维护订阅者，合并提交后推送最新的变更游标；
+// 每个订阅者队列有上限，消费太慢（队列满）的连接直接断开，由客户端重连
+@Component
+public class TaskChangeStream {
+    private static final int QUEUE_CAPACITY = 16;
+    private static final long EMITTER_TIMEOUT_MS = TimeUnit.MINUTES.toMillis(10);
+    private static final long HEARTBEAT_SECONDS = 25;
+    private static final long HEARTBEAT = -1;
+    private final ConcurrentHashMap<String, List<Subscriber>> subscribers = new ConcurrentHashMap<>();
+    private final ExecutorService sender = Executors.newFixedThreadPool(4);
+    private final ScheduledExecutorService heartbeat = Executors.newSingleThreadScheduledExecutor();
+
+    private class Subscriber {
+        final String userId;
+        final SseEmitter emitter = new SseEmitter(EMITTER_TIMEOUT_MS);
+        final ArrayBlockingQueue<Long> queue = new ArrayBlockingQueue<>(QUEUE_CAPACITY);
+        final AtomicBoolean draining = new AtomicBoolean(false);
+        Subscriber(String userId) {
+            this.userId = userId;
+        }
+        void offer(long cursor) {
+            if (!queue.offer(cursor)) {
+                // 慢消费者：丢弃连接
+                System.out.println("推送队列已满，断开慢速订阅者: " + userId);
+                remove(this);
+                emitter.complete();
+                return;
+            }
+            if (draining.compareAndSet(false, true)) sender.execute(this::drain);
+        }
+        // 同一订阅者同一时刻只有一个发送任务，保证顺序
+        void drain() {
+            try {
+                Long cursor;
+                while ((cursor = queue.poll()) != null) {
+                    if (cursor == HEARTBEAT) {
+                        emitter.send(SseEmitter.event().comment("ping"));
+                    } else {
+                        emitter.send(SseEmitter.event().name("change").id(Long.toString(cursor)).data(cursor));
+                    }
+                }
+            } catch (IOException | IllegalStateException e) {
+                remove(this);
+                emitter.completeWithError(e);
+                return;
+            } finally {
+                draining.set(false);
+            }
+            if (!queue.isEmpty() && draining.compareAndSet(false, true)) sender.execute(this::drain);
+        }
+    }
+
+    public TaskChangeStream() {
+        heartbeat.scheduleAtFixedRate(() -> {
+            for (List<Subscriber> list : subscribers.values()) {
+                for (Subscriber s : list) s.offer(HEARTBEAT);
+            }
+        }, HEARTBEAT_SECONDS, HEARTBEAT_SECONDS, TimeUnit.SECONDS);
+    }
+
+    // 新订阅先收到当前游标，客户端据此补齐断线期间的变更
+    public SseEmitter subscribe(String userId, long currentCursor) {
+        Subscriber s = new Subscriber(userId);
+        subscribers.computeIfAbsent(userId, k -> new CopyOnWriteArrayList<>()).add(s);
+        s.emitter.onCompletion(() -> remove(s));
+        s.emitter.onTimeout(() -> remove(s));
+        s.emitter.onError(e -> remove(s));
+        s.offer(currentCursor);
+        return s.emitter;
+    }
+
+    public void publish(String userId, long cursor) {
+        List<Subscriber> list = subscribers.get(userId);
+        if (list == null) return;
+        for (Subscriber s : list) s.offer(cursor);
+    }
+
+    private void remove(Subscriber s) {
+        subscribers.computeIfPresent(s.userId, (k, list) -> {
+            list.remove(s);
+            return list.isEmpty() ? null : list;
+        });
+    }
+
+    @PreDestroy
+    public void close() {
+        heartbeat.shutdown();
+        sender.shutdown();
+        for (List<Subscriber> list : subscribers.values()) {
+            for (Subscriber s : list) s.emitter.complete();
+        }
+    }
+}
@@ -1,106 +1,387 @@
 package todoapp;
 
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
 import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.ObjectInputStream;
 import java.io.ObjectOutputStream;
-import java.util.List;
+import java.nio.file.Paths;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ConcurrentHashMap;
-import java.util.ArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import jakarta.annotation.PreDestroy;
 import jakarta.servlet.http.HttpServletResponse;
 @RestController
 @RequestMapping("/api/tasks")
 public class TaskController {
-    private final ConcurrentHashMap<String, List<Task>> userTasks = new ConcurrentHashMap<>();
-    private final ConcurrentHashMap<String, List<TaskList>> userLists = new ConcurrentHashMap<>();
-    private final ConcurrentHashMap<String, List<Task>> userDeletedTasks = new ConcurrentHashMap<>();
-    @GetMapping(value = "/user/{userId}", produces = "application/octet-stream")
-    public void getUserTasks(@PathVariable String userId, HttpServletResponse response) throws IOException {
-        List<Task> tasks = userTasks.getOrDefault(userId, new ArrayList<>());
-        List<TaskList> lists = userLists.getOrDefault(userId, new ArrayList<>());
-        List<Task> deletedTasks = userDeletedTasks.getOrDefault(userId, new ArrayList<>());
-        assignTasksToLists(tasks, lists);
-        TaskSyncData data = new TaskSyncData(tasks, deletedTasks, lists);
-        response.setContentType("application/octet-stream");
-        try (ObjectOutputStream oos = new ObjectOutputStream(response.getOutputStream())) {
-            oos.writeObject(data);
-        }
-    }
-    @PostMapping(value = "/sync/{userId}", consumes = "application/octet-stream")
+    // 每个用户一个容器：合并在容器内串行，不同用户之间互不阻塞
+    private final ConcurrentHashMap<String, UserTaskStore> userStores = new ConcurrentHashMap<>();
+    // 还没有同步过的用户读到的空容器，只读，从不合并
+    private static final UserTaskStore EMPTY_STORE = new UserTaskStore();
+    private static final long SNAPSHOT_EVERY_RECORDS = 50_000; // 日志累计多少条后做一次快照
+    private static final long SNAPSHOT_INTERVAL_MINUTES = 10;
+    private static final int RETRY_AFTER_SECONDS = 1; // 重发的请求撞上原请求时建议客户端等待的秒数
+    private final SyncJournal journal;
+    private final TaskChangeStream changeStream;
+    private final SyncResponseCache responseCache;
+    private final SyncRequestDedupe requestDedupe;
+    // 同步请求持读锁，快照切换日志段时持写锁，保证快照与日志截止点一致
+    private final ReentrantReadWriteLock stateLock = new ReentrantReadWriteLock();
+    private final ScheduledExecutorService snapshotService = Executors.newSingleThreadScheduledExecutor();
+    private final AtomicBoolean snapshotRunning = new AtomicBoolean(false);
+
+    public TaskController(
+            @Value("${todo.server.data-dir:${user.home}/todo_server_data}") String dataDir,
+            TaskChangeStream changeStream,
+            SyncResponseCache responseCache,
+            SyncRequestDedupe requestDedupe
+    ) throws IOException {
+        this.changeStream = changeStream;
+        this.responseCache = responseCache;
+        this.requestDedupe = requestDedupe;
+        this.journal = new SyncJournal(Paths.get(dataDir));
+        recover();
+        snapshotService.scheduleAtFixedRate(() -> {
+            if (journal.recordsSinceSnapshot() > 0) takeSnapshot();
+        }, SNAPSHOT_INTERVAL_MINUTES, SNAPSHOT_INTERVAL_MINUTES, TimeUnit.MINUTES);
+    }
+    @GetMapping(value = "/user/{userId}", produces = {TaskWireCodec.CONTENT_TYPE, TaskWireCodec.LEGACY_CONTENT_TYPE})
+    public void getUserTasks(
+            @PathVariable String userId,
+            @RequestHeader(value = "Accept", required = false) String accept,
+            @RequestHeader(value = "If-None-Match", required = false) String ifNoneMatch,
+            HttpServletResponse response
+    ) throws IOException {
+        // 读取已发布的不可变快照，无需加锁
+        UserTaskStore store = store(userId);
+        UserTaskStore.Snapshot snapshot = store.snapshot();
+        boolean binary = acceptsBinary(accept);
+        String etag = snapshot.etag(binary);
+        response.setHeader("ETag", etag);
+        // 数据未变化时直接返回 304，不做序列化
+        if (ifNoneMatch != null && (ifNoneMatch.contains(etag) || ifNoneMatch.trim().equals("*"))) {
+            response.setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+            return;
+        }
+        // 同一版本的序列化结果直接复用
+        byte[] body = responseCache.get(userId, binary, snapshot.cursor);
+        if (body == null) {
+            // 全量内容按需生成；期间有新的合并时改为返回新版本
+            UserTaskStore.Snapshot full = store.fullSnapshot(snapshot);
+            if (full != snapshot) {
+                snapshot = full;
+                response.setHeader("ETag", snapshot.etag(binary));
+            }
+            body = TaskWireCodec.write(snapshot.toSyncData(), binary);
+            responseCache.put(userId, binary, snapshot.cursor, body);
+        }
+        writeBody(body, binary, response);
+    }
+    // 响应缓存的命中/未命中计数
+    @GetMapping("/cache/stats")
+    public Map<String, Long> getCacheStats() {
+        return responseCache.stats();
+    }
+    // 增量拉取：只返回游标之后被接受的变更和新的游标
+    @GetMapping(value = "/user/{userId}/changes", produces = {TaskWireCodec.CONTENT_TYPE, TaskWireCodec.LEGACY_CONTENT_TYPE})
+    public void getUserChanges(
+            @PathVariable String userId,
+            @RequestParam(defaultValue = "0") long since,
+            @RequestHeader(value = "Accept", required = false) String accept,
+            HttpServletResponse response
+    ) throws IOException {
+        TaskSyncData data = store(userId).changesSince(since);
+        writeSyncData(data, accept, response);
+    }
+    // 变更推送：合并提交后推送新的游标，客户端据此增量拉取
+    @GetMapping(value = "/stream/{userId}", produces = "text/event-stream")
+    public SseEmitter streamUserChanges(@PathVariable String userId) {
+        return changeStream.subscribe(userId, store(userId).snapshot().cursor);
+    }
+    // 跨清单按名称搜索，只返回按相关度排序的匹配任务，瘦客户端不用下载全部数据
+    @GetMapping(value = "/search/{userId}", produces = {TaskWireCodec.CONTENT_TYPE, TaskWireCodec.LEGACY_CONTENT_TYPE})
+    public void searchUserTasks(
+            @PathVariable String userId,
+            @RequestParam("q") String query,
+            @RequestParam(defaultValue = "50") int limit,
+            @RequestHeader(value = "Accept", required = false) String accept,
+            HttpServletResponse response
+    ) throws IOException {
+        writeSyncData(store(userId).search(query, limit), accept, response);
+    }
+    // 分页查询：按完成状态、清单、修改时间、名称前缀过滤，按修改时间或名称排序，由用户的二级索引直接定位。
+    // 还有下一页时响应头 X-Next-Page 带翻页标记，下一次请求作为 after 传回
+    @GetMapping(value = "/query/{userId}", produces = {TaskWireCodec.CONTENT_TYPE, TaskWireCodec.LEGACY_CONTENT_TYPE})
+    public void queryUserTasks(
+            @PathVariable String userId,
+            @RequestParam(required = false) Boolean completed,
+            @RequestParam(required = false) String listId,
+            @RequestParam(required = false) Long modifiedSince,
+            @RequestParam(required = false) String prefix,
+            @RequestParam(defaultValue = "modified") String sort,
+            @RequestParam(defaultValue = "desc") String order,
+            @RequestParam(required = false) String after,
+            @RequestParam(defaultValue = "" + TaskQueryIndex.DEFAULT_LIMIT) int limit,
+            @RequestHeader(value = "Accept", required = false) String accept,
+            HttpServletResponse response
+    ) throws IOException {
+        UserTaskStore store = store(userId);
+        TaskQueryIndex.Page page;
+        try {
+            TaskQueryIndex.Sort sortBy = TaskQueryIndex.Sort.valueOf(sort.toUpperCase(Locale.ROOT));
+            page = store.query(new TaskQueryIndex.Query(listId, completed, modifiedSince, prefix,
+                    sortBy, !"asc".equalsIgnoreCase(order), after, limit));
+        } catch (IllegalArgumentException e) {
+            response.sendError(HttpServletResponse.SC_BAD_REQUEST, "查询参数无效: " + e.getMessage());
+            return;
+        }
+        if (page.next != null) response.setHeader("X-Next-Page", page.next);
+        writeSyncData(store.toSyncData(page.tasks), accept, response);
+    }
+    @PostMapping(value = "/sync/{userId}", consumes = {TaskWireCodec.CONTENT_TYPE, TaskWireCodec.LEGACY_CONTENT_TYPE})
     public void syncUserTasks(
             @PathVariable String userId,
-            @RequestBody byte[] data
-    ) throws IOException, ClassNotFoundException {
-        try (ObjectInputStream ois = new ObjectInputStream(new ByteArrayInputStream(data))) {
-            TaskSyncData delta = (TaskSyncData) ois.readObject();
-            // 处理已删除的任务
-            List<Task> deletedTasks = userDeletedTasks.getOrDefault(userId, new ArrayList<>());
-            for (Task deletedTask : delta.getDeletedTasks()) {
-                System.out.println("收到已删除任务: " + deletedTask.getName() + " ID: " + deletedTask.getId());
-                for (Task existingTask : deletedTasks) {
-                    if (existingTask.getId().equals(deletedTask.getId())) {
-                        existingTask.setName(deletedTask.getName());
-                        existingTask.setCompleted(deletedTask.isCompleted());
-                        existingTask.setDeleted(true);
-                        existingTask.setLastModified(deletedTask.getLastModified());
-                        break;
-                    }
-                }
+            @RequestHeader(value = "X-Request-Id", required = false) String requestId,
+            @RequestBody byte[] data,
+            HttpServletResponse response
+    ) throws IOException {
+        long[] applied;
+        try {
+            applied = applyOnce(userId, requestId, data);
+        } catch (IllegalArgumentException e) {
+            response.sendError(HttpServletResponse.SC_BAD_REQUEST, e.getMessage());
+            return;
+        } catch (RetryLaterException e) {
+            response.setHeader("Retry-After", String.valueOf(RETRY_AFTER_SECONDS));
+            response.sendError(e.status, e.getMessage());
+            return;
+        }
+        if (applied == null) {
+            response.setHeader("X-Request-Replayed", "true");
+        }
+    }
+    // 推送和拉取合并成一次往返：应用客户端的变更，返回游标之后客户端还没看到的服务端变更，
+    // 不含本次刚推送的。重发的请求不再合并，返回游标之后的全部变更
+    @PostMapping(value = "/exchange/{userId}",
+            consumes = {TaskWireCodec.CONTENT_TYPE, TaskWireCodec.LEGACY_CONTENT_TYPE},
+            produces = {TaskWireCodec.CONTENT_TYPE, TaskWireCodec.LEGACY_CONTENT_TYPE})
+    public void exchange(
+            @PathVariable String userId,
+            @RequestParam(defaultValue = "0") long since,
+            @RequestHeader(value = "X-Request-Id", required = false) String requestId,
+            @RequestHeader(value = "Accept", required = false) String accept,
+            @RequestBody byte[] data,
+            HttpServletResponse response
+    ) throws IOException {
+        long[] applied;
+        try {
+            applied = applyOnce(userId, requestId, data);
+        } catch (IllegalArgumentException e) {
+            response.sendError(HttpServletResponse.SC_BAD_REQUEST, e.getMessage());
+            return;
+        } catch (RetryLaterException e) {
+            response.setHeader("Retry-After", String.valueOf(RETRY_AFTER_SECONDS));
+            response.sendError(e.status, e.getMessage());
+            return;
+        }
+        TaskSyncData changes;
+        if (applied == null) {
+            response.setHeader("X-Request-Replayed", "true");
+            changes = store(userId).changesSince(since);
+        } else {
+            changes = store(userId).changesSince(since, applied[0], applied[1]);
+        }
+        writeSyncData(changes, accept, response);
+    }
+    // 按请求ID去重后应用：重发的请求直接用上次的结果，不再反序列化和合并，返回 null；
+    // 否则返回本次合并打上的变更序号范围 (from, to]。
+    // 原请求还在处理时不占着线程等它，回 409 让客户端稍后重发；原请求刚失败时回 503，重发会重新处理
+    private long[] applyOnce(String userId, String requestId, byte[] data) throws IOException {
+        if (requestId == null) return applySync(userId, data);
+        CompletableFuture<Integer> previous = requestDedupe.claim(userId, requestId);
+        if (previous != null) {
+            if (!previous.isDone()) {
+                throw new RetryLaterException(HttpServletResponse.SC_CONFLICT, "原请求仍在处理中: " + requestId);
             }
-            userDeletedTasks.put(userId, deletedTasks);
-            // 取出原有数据
-            List<Task> allTasks = userTasks.getOrDefault(userId, new ArrayList<>());
-            List<TaskList> allLists = userLists.getOrDefault(userId, new ArrayList<>());
-            // 处理普通任务
-            java.util.Map<String, Task> taskMap = new java.util.HashMap<>();
-            for (Task t : allTasks) taskMap.put(t.getId(), t);
-            for (Task t : delta.getTasks()) {
-                System.out.println("服务端收到: " + t.getName() + " completed=" + t.isCompleted() + " lastModified=" + t.getLastModified());
-                Task old = taskMap.get(t.getId());
-                if (old == null || t.getLastModified() > old.getLastModified()) {
-                    taskMap.put(t.getId(), t);
-                }
+            if (previous.isCompletedExceptionally()) {
+                throw new RetryLaterException(HttpServletResponse.SC_SERVICE_UNAVAILABLE, "原请求处理失败，请重试: " + requestId);
             }
-            // 处理清单
-            java.util.Map<String, TaskList> listMap = new java.util.HashMap<>();
-            for (TaskList l : allLists) listMap.put(l.getId(), l);
-            for (TaskList l : delta.getCustomLists()) {
-                TaskList old = listMap.get(l.getId());
-                if (old == null || l.getLastModified() > old.getLastModified()) {
-                    listMap.put(l.getId(), l);
-                }
+            System.out.println("重复的同步请求 " + requestId + "，返回已记录的结果 " + previous.join());
+            return null;
+        }
+        try {
+            long[] applied = applySync(userId, data);
+            requestDedupe.complete(userId, requestId, HttpServletResponse.SC_OK);
+            return applied;
+        } catch (IOException | RuntimeException e) {
+            requestDedupe.abandon(userId, requestId, e);
+            throw e;
+        }
+    }
+    // 请求去重表的统计
+    @GetMapping("/dedupe/stats")
+    public Map<String, Long> getDedupeStats() {
+        return requestDedupe.stats();
+    }
+    private long[] applySync(String userId, byte[] data) throws IOException {
+        // 根据内容识别二进制编码或旧的 Java 序列化格式；解不开的请求体按参数错误返回 400
+        TaskSyncData delta;
+        try {
+            delta = TaskWireCodec.read(data);
+        } catch (IOException e) {
+            throw new IllegalArgumentException("同步数据无效: " + e.getMessage(), e);
+        }
+        for (Task deletedTask : delta.getDeletedTasks()) {
+            System.out.println("收到已删除任务: " + deletedTask.getName() + " ID: " + deletedTask.getId());
+        }
+        for (Task t : delta.getTasks()) {
+            System.out.println("服务端收到: " + t.getName() + " completed=" + t.isCompleted() + " lastModified=" + t.getLastModified());
+        }
+        UserTaskStore store = storeForWrite(userId);
+        long before;
+        long after;
+        stateLock.readLock().lock();
+        try {
+            // 取号和提交日志在用户锁内，取号顺序即日志顺序；fsync 在锁外等待，
+            // 同一用户并发的请求可以共用一次组提交
+            long ticket;
+            CompletableFuture<Void> durable;
+            synchronized (store) {
+                ticket = store.nextTicket();
+                durable = journal.submit(userId, data);
+            }
+            IOException failure = null;
+            try {
+                SyncJournal.awaitDurable(durable);
+            } catch (IOException e) {
+                failure = e;
             }
-            // 更新数据
-            assignTasksToLists(new ArrayList<>(taskMap.values()), new ArrayList<>(listMap.values()));
-            userTasks.put(userId, new ArrayList<>(taskMap.values()));
-            userLists.put(userId, new ArrayList<>(listMap.values()));
-            // 调试输出
-            System.out.println("服务端存储的任务数: " + userTasks.get(userId).size());
-            System.out.println("服务端存储的已删除任务数: " + deletedTasks.size());
-            for (Task t : deletedTasks) {
-                System.out.println("已删除任务: " + t.getName() + " ID: " + t.getId() + " completed=" + t.isCompleted());
+            // 落盘之后才按日志顺序合并并发布，读取方看不到还没落盘的修改；
+            // 写日志失败的请求只让出顺序，已发布的快照不变，客户端带同一请求ID重试
+            synchronized (store) {
+                store.awaitTurn(ticket);
+                try {
+                    if (failure != null) throw failure;
+                    before = store.snapshot().cursor;
+                    store.merge(delta);
+                    after = store.snapshot().cursor;
+                } finally {
+                    store.finishTurn();
+                }
             }
+        } finally {
+            stateLock.readLock().unlock();
+        }
+        if (journal.recordsSinceSnapshot() >= SNAPSHOT_EVERY_RECORDS) {
+            snapshotService.execute(this::takeSnapshot);
+        }
+        UserTaskStore.Snapshot snapshot = store.snapshot();
+        if (after != before) {
+            responseCache.invalidate(userId);
+            changeStream.publish(userId, snapshot.cursor);
         }
+        // 调试输出（只输出计数，逐条列出全部删除标记每次都是全量遍历）
+        System.out.println("服务端存储的任务数: " + store.taskCount());
+        System.out.println("服务端存储的已删除任务数: " + store.deletedTaskCount());
+        return new long[]{before, after};
     }
-    private void assignTasksToLists(List<Task> allTasks, List<TaskList> allLists) {
-        for (TaskList list : allLists) {
-            list.getTasks().clear();
+    // 客户端声明接受二进制编码时使用紧凑格式，否则回退到 Java 原生序列化
+    private void writeSyncData(TaskSyncData data, String accept, HttpServletResponse response) throws IOException {
+        boolean binary = acceptsBinary(accept);
+        writeBody(TaskWireCodec.write(data, binary), binary, response);
+    }
+    private void writeBody(byte[] body, boolean binary, HttpServletResponse response) throws IOException {
+        response.setContentType(binary ? TaskWireCodec.CONTENT_TYPE : TaskWireCodec.LEGACY_CONTENT_TYPE);
+        response.setContentLength(body.length);
+        response.getOutputStream().write(body);
+    }
+    private static boolean acceptsBinary(String accept) {
+        return accept != null && accept.contains(TaskWireCodec.CONTENT_TYPE);
+    }
+    // 启动时恢复：加载快照，再重放快照之后的日志
+    @SuppressWarnings("unchecked")
+    private void recover() throws IOException {
+        long start = System.currentTimeMillis();
+        long snapshotLsn = 0;
+        SyncJournal.Snapshot snapshot = journal.readSnapshot();
+        if (snapshot != null) {
+            try (ObjectInputStream ois = new ObjectInputStream(new ByteArrayInputStream(snapshot.state))) {
+                userStores.putAll((ConcurrentHashMap<String, UserTaskStore>) ois.readObject());
+            } catch (ClassNotFoundException e) {
+                throw new IOException("无法读取快照", e);
+            }
+            snapshotLsn = snapshot.lsn;
         }
-        for (Task t : allTasks) {
-            TaskList belongs = null;
-            for (TaskList l : allLists) {
-                if (t.getBelongsTo() != null && t.getBelongsTo().getId().equals(l.getId())) {
-                    belongs = l;
-                    break;
+        long[] replayed = {0};
+        long lastLsn = journal.replay(snapshotLsn, (userId, payload) -> {
+            try {
+                storeForWrite(userId).merge(TaskWireCodec.read(payload));
+                replayed[0]++;
+            } catch (IOException e) {
+                System.err.println("重放同步日志失败: " + e.getMessage());
+            }
+        });
+        journal.open(lastLsn);
+        System.out.println("服务端数据恢复完成: 快照LSN=" + snapshotLsn + ", 重放日志 " + replayed[0]
+                + " 条, 耗时 " + (System.currentTimeMillis() - start) + " ms");
+    }
+    // 压缩快照：在写锁内切换日志段并复制各用户的状态，锁外序列化并原子写入文件
+    private void takeSnapshot() {
+        if (!snapshotRunning.compareAndSet(false, true)) return;
+        try {
+            long lsn;
+            ConcurrentHashMap<String, UserTaskStore> copies = new ConcurrentHashMap<>();
+            stateLock.writeLock().lock();
+            try {
+                lsn = journal.rotate();
+                for (Map.Entry<String, UserTaskStore> e : userStores.entrySet()) {
+                    copies.put(e.getKey(), e.getValue().copyForSnapshot());
                 }
+            } finally {
+                stateLock.writeLock().unlock();
             }
-            if (belongs != null) {
-                t.setBelongsTo(belongs);
-                belongs.getTasks().add(t);
+            ByteArrayOutputStream bos = new ByteArrayOutputStream();
+            try (ObjectOutputStream oos = new ObjectOutputStream(bos)) {
+                oos.writeObject(copies);
             }
+            journal.writeSnapshot(lsn, bos.toByteArray());
+            System.out.println("服务端快照已写入: LSN=" + lsn + ", 大小 " + bos.size() + " 字节");
+        } catch (IOException e) {
+            System.err.println("写入服务端快照失败: " + e.getMessage());
+        } finally {
+            snapshotRunning.set(false);
+        }
+    }
+    @PreDestroy
+    public void close() throws IOException {
+        snapshotService.shutdown();
+        journal.close();
+    }
+    // 读取用：没有数据的用户返回共享的空容器，不为任意 userId 建容器（否则会一直留在内存和快照里）
+    private UserTaskStore store(String userId) {
+        return userStores.getOrDefault(userId, EMPTY_STORE);
+    }
+    // 只在合并（同步请求和启动重放）时创建容器
+    private UserTaskStore storeForWrite(String userId) {
+        return userStores.computeIfAbsent(userId, k -> new UserTaskStore());
+    }
+    // 请求暂时不能处理，带 Retry-After 返回给客户端
+    private static class RetryLaterException extends RuntimeException {
+        private static final long serialVersionUID = 1L;
+        final int status;
+        RetryLaterException(int status, String message) {
+            super(message);
+            this.status = status;
         }
     }
 
 }
-
@@ -1,179 +1,310 @@
 package todoapp;
 
 import java.io.*;
-import java.util.HashMap;
-import java.util.Map;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Function;
+import java.util.function.Supplier;
 import javafx.application.Platform;
 
 public class TaskDataManager {
     private MainBorderPane mainApp;
     private final String DATA_FILE;
+    private final TaskStorage store;
+    // 待推送修改的发件箱，只在写线程上访问
+    private final TaskOutbox outbox;
+    private volatile boolean outboxExisted;
+    // 单独的写线程，保存按提交顺序执行
+    private final ExecutorService saveExecutor = Executors.newSingleThreadExecutor(r -> {
+        Thread t = new Thread(r, "local-save");
+        t.setDaemon(true);
+        return t;
+    });
+    // 合并线程：计算合并计划，并按顺序串行执行各次合并
+    private final ExecutorService mergeExecutor = Executors.newSingleThreadExecutor(r -> {
+        Thread t = new Thread(r, "remote-merge");
+        t.setDaemon(true);
+        return t;
+    });
+    private final AtomicReference<PendingSave> pendingSave = new AtomicReference<>();
+    private final AtomicInteger requestedSaves = new AtomicInteger();
+    // 保存耗时统计，只在写线程上更新
+    private long saveCount;
+    private long fxBlockedTotal;
+    private long fxBlockedMax;
+
+    private static class PendingSave {
+        final TaskStorage.Snapshot snapshot;
+        final long fxBlockedNanos;
+        PendingSave(TaskStorage.Snapshot snapshot, long fxBlockedNanos) {
+            this.snapshot = snapshot;
+            this.fxBlockedNanos = fxBlockedNanos;
+        }
+    }
     public TaskDataManager(MainBorderPane app, String userId) {
         this.mainApp = app;
         String userHome = System.getProperty("user.home");
         this.DATA_FILE = userHome + File.separator + "todo_data_" + userId + ".ser";
+        // 默认快照 + 日志；-Dtodo.store=mapped 切换到内存映射存储
+        this.store = "mapped".equals(System.getProperty("todo.store"))
+                ? new MappedTaskStore(Paths.get(DATA_FILE))
+                : new LocalTaskStore(Paths.get(DATA_FILE));
+        this.outbox = new TaskOutbox(Paths.get(userHome, "todo_outbox_" + userId + ".log"));
     }
     // 保存数据时，自动处理已删除清单的任务引用
     public void saveData() {
         saveData(false);
     }
     // 添加一个重载方法，允许静默保存
+    // 同步保存：在调用线程上取快照，排在写线程已有的保存之后执行并等待完成（关闭窗口时使用）
     public void saveData(boolean silent) {
+        long start = System.nanoTime();
+        TaskStorage.Snapshot snapshot = capture();
+        long captured = System.nanoTime();
         try {
-            // 确保目录存在
-            File file = new File(DATA_FILE);
-            if (!file.getParentFile().exists()) {
-                file.getParentFile().mkdirs();
+            saveExecutor.submit(() -> {
+                write(snapshot, captured - start, 1);
+                return null;
+            }).get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (ExecutionException | RejectedExecutionException e) {
+            Throwable cause = e.getCause() != null ? e.getCause() : e;
+            System.err.println("保存数据失败: " + cause.getMessage());
+            cause.printStackTrace();
+            if (!silent) {
+                mainApp.showAlert("保存失败", "无法保存数据: " + cause.getMessage());
             }
-            try (ObjectOutputStream oos = new ObjectOutputStream(
-                    new FileOutputStream(DATA_FILE))) {
-                // 过滤掉已删除的清单（如果有标记）
-                TaskData data = new TaskData(
-                        mainApp.uncompletedTasks,
-                        mainApp.completedTasks,
-                        mainApp.customLists
-                );
-                oos.writeObject(data);
-                System.out.println("数据已保存到: " + DATA_FILE);
-                System.out.println("保存的任务数: " + (mainApp.uncompletedTasks.size() + mainApp.completedTasks.size()));
+        }
+        if (MainBorderPane.METRICS) {
+            System.out.println("同步保存，调用线程阻塞 " + millis(System.nanoTime() - start) + " ms");
+        }
+    }
+    // 异步保存：FX 线程上只复制列表结构，比对和写盘在后台写线程完成；
+    // 写线程还没取走的快照直接被新快照替换，连续多次标记只写一次
+    public void requestSave() {
+        if (!Platform.isFxApplicationThread()) {
+            Platform.runLater(this::requestSave);
+            return;
+        }
+        long start = System.nanoTime();
+        TaskStorage.Snapshot snapshot = capture();
+        long blocked = System.nanoTime() - start;
+        requestedSaves.incrementAndGet();
+        if (pendingSave.getAndSet(new PendingSave(snapshot, blocked)) == null) {
+            try {
+                saveExecutor.execute(this::drainPendingSave);
+            } catch (RejectedExecutionException e) {
+                System.err.println("保存线程已关闭，放弃本次保存");
             }
+        }
+    }
+    private void drainPendingSave() {
+        PendingSave save = pendingSave.getAndSet(null);
+        if (save == null) return;
+        try {
+            write(save.snapshot, save.fxBlockedNanos, requestedSaves.getAndSet(0));
         } catch (IOException e) {
             System.err.println("保存数据失败: " + e.getMessage());
             e.printStackTrace();
-            if (!silent) {
-                mainApp.showAlert("保存失败", "无法保存数据: " + e.getMessage());
-            }
         }
     }
-    public void loadData() {
-        File file = new File(DATA_FILE);
+    // 只在写线程上调用
+    private void write(TaskStorage.Snapshot snapshot, long fxBlockedNanos, int coalesced) throws IOException {
+        long start = System.nanoTime();
+        long bytes = store.save(snapshot);
+        long elapsed = System.nanoTime() - start;
+        saveCount++;
+        fxBlockedTotal += fxBlockedNanos;
+        fxBlockedMax = Math.max(fxBlockedMax, fxBlockedNanos);
+        if (bytes > 0) {
+            System.out.println("数据已保存到: " + DATA_FILE + "（追加 " + bytes + " 字节）");
+            System.out.println("保存的任务数: " + snapshot.taskCount());
+        }
+        if (MainBorderPane.METRICS) {
+            System.out.println("保存耗时: 快照 " + millis(fxBlockedNanos) + " ms，后台写入 " + millis(elapsed)
+                    + " ms，合并 " + coalesced + " 次保存请求；累计 " + saveCount + " 次，快照平均 "
+                    + millis(fxBlockedTotal / saveCount) + " ms，最长 " + millis(fxBlockedMax) + " ms");
+        }
+    }
+    private static String millis(long nanos) {
+        return String.format("%.2f", nanos / 1_000_000.0);
+    }
+    // 读取本地数据（可在后台线程调用）；没有数据或读取失败时返回 null
+    public TaskData readLocalData() {
         System.out.println("尝试加载数据文件: " + DATA_FILE);
-        if (!file.exists()) {
-            System.out.println("数据文件不存在，将使用新数据");
-            return;
+        try {
+            outboxExisted = saveExecutor.submit(() -> {
+                outbox.open();
+                return outbox.existed();
+            }).get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (ExecutionException e) {
+            System.err.println("打开发件箱失败: " + e.getCause().getMessage());
         }
-        try (ObjectInputStream ois = new ObjectInputStream(new FileInputStream(DATA_FILE))) {
-            System.out.println("开始读取数据文件...");
-            TaskData data = (TaskData) ois.readObject();
-            System.out.println("数据文件读取成功，开始恢复数据...");
-            data.populateObservableLists(
-                    mainApp.uncompletedTasks,
-                    mainApp.completedTasks,
-                    mainApp.customLists,
-                    mainApp
-            );
-            // 使用Platform.runLater在UI线程中更新界面
-            Platform.runLater(() -> {
-                mainApp.refreshCurrentView(); // 刷新当前任务视图
-                mainApp.refreshCustomListsUI(); // 刷新清单导航按钮
-                System.out.println("数据加载完成，未完成任务数: " + mainApp.uncompletedTasks.size() + 
-                                 ", 已完成任务数: " + mainApp.completedTasks.size() + 
-                                 ", 自定义清单数: " + mainApp.customLists.size());
-            });
+        try {
+            long start = System.nanoTime();
+            TaskData data = store.load();
+            if (data == null && store instanceof MappedTaskStore) {
+                // 首次切换到映射存储：从原来的快照和日志读入，下一次保存整体写入槽位
+                try (LocalTaskStore legacy = new LocalTaskStore(Paths.get(DATA_FILE))) {
+                    data = legacy.load();
+                }
+            }
+            if (data == null) {
+                System.out.println("数据文件不存在，将使用新数据");
+            } else {
+                System.out.println("数据文件读取成功，耗时 " + millis(System.nanoTime() - start) + " ms");
+            }
+            return data;
         } catch (IOException | ClassNotFoundException e) {
             System.err.println("加载数据失败: " + e.getMessage());
             e.printStackTrace();
-            mainApp.showAlert("加载失败", "无法加载数据: " + e.getMessage());
+            Platform.runLater(() -> mainApp.showAlert("加载失败", "无法加载数据: " + e.getMessage()));
+            return null;
         }
     }
-    // 合并远程数据并保存
-    public void mergeAndSave(TaskSyncData remoteData) {
-        System.out.println("mergeAndSave remoteData: " + remoteData.getTasks());
-        // 如果远程数据为空，不进行合并
-        if (remoteData == null || remoteData.getTasks().isEmpty()) {
-            System.out.println("远程数据为空，跳过合并");
-            return;
+    // 在 FX 线程上把本地数据放进界面列表
+    public void applyLocalData(TaskData data) {
+        if (data == null) return;
+        TaskRepository repository = mainApp.repository;
+        repository.load(data);
+        System.out.println("数据加载完成，未完成任务数: " + repository.uncompleted().size() +
+                         ", 已完成任务数: " + repository.completed().size() +
+                         ", 任务总数: " + repository.size() +
+                         ", 自定义清单数: " + repository.lists().size());
+    }
+    // 关闭本地存储，等待排队中的保存和进行中的压缩完成
+    public void close() {
+        mergeExecutor.shutdownNow();
+        saveExecutor.shutdown();
+        try {
+            saveExecutor.awaitTermination(10, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
         }
-
-        // 处理已删除的任务
-        if (remoteData.getDeletedTasks() != null) {
-            for (Task deletedTask : remoteData.getDeletedTasks()) {
-                // 从所有列表中移除已删除的任务
-                mainApp.uncompletedTasks.removeIf(task -> task.getId().equals(deletedTask.getId()));
-                mainApp.completedTasks.removeIf(task -> task.getId().equals(deletedTask.getId()));
-                // 从自定义清单中移除
-                for (TaskList list : mainApp.customLists) {
-                    list.getTasks().removeIf(task -> task.getId().equals(deletedTask.getId()));
-                }
-                // 添加到已删除任务列表
-                if (!mainApp.deletedTasks.contains(deletedTask)) {
-                    mainApp.deletedTasks.add(deletedTask);
-                }
-            }
+        try {
+            store.close();
+            outbox.close();
+        } catch (IOException e) {
+            System.err.println("关闭本地存储失败: " + e.getMessage());
         }
-
-        // 合并全局任务
-        Map<String, Task> localGlobalMap = new HashMap<>();
-        for (Task t : mainApp.uncompletedTasks) localGlobalMap.put(t.getId(), t);
-        for (Task t : mainApp.completedTasks) localGlobalMap.put(t.getId(), t);
-        Map<String, Task> remoteGlobalMap = new HashMap<>();
-        for (Task t : remoteData.getTasks()) remoteGlobalMap.put(t.getId(), t);
-
-        // 合并远程任务
-        for (Task remote : remoteData.getTasks()) {
-            Task local = localGlobalMap.get(remote.getId());
-            remote.restoreFX();
-            if (local == null) {
-                if (!remote.isDeleted()) {
-                    if (remote.isCompleted()) mainApp.completedTasks.add(remote);
-                    else mainApp.uncompletedTasks.add(remote);
-                }
-            } else {
-                if (remote.getLastModified() > local.getLastModified()) {
-                    local.setName(remote.getName());
-                    local.completed = remote.isCompleted();
-                    local.setDeleted(remote.isDeleted());
-                    local.setLastModified(remote.getLastModified());
+    }
+    // 此前是否用过发件箱；没有用过时，上次运行的修改是否已推送无从得知
+    public boolean hasOutboxHistory() {
+        return outboxExisted;
+    }
+    // 把待推送的修改写入发件箱（FX 线程调用）：这里只复制实体当前状态，落盘在写线程上，
+    // 与本地保存共用一个线程，保证排在之后的推送能看到这些记录。返回的 future 在落盘后完成，写入失败时异常完成
+    public CompletableFuture<Void> recordOutgoing(Collection<Task> tasks, Collection<TaskList> lists) {
+        List<Task> taskCopies = new ArrayList<>(tasks.size());
+        for (Task t : tasks) {
+            Task copy = new Task(t.getId(), t.getName(), t.isCompleted(), t.isDeleted(), t.getLastModified());
+            copy.setListId(t.getListId());
+            taskCopies.add(copy);
+        }
+        List<TaskList> listCopies = new ArrayList<>(lists.size());
+        for (TaskList l : lists) {
+            listCopies.add(new TaskList(l.getId(), l.getName(), l.isDeleted(), l.getLastModified()));
+        }
+        try {
+            return CompletableFuture.runAsync(() -> {
+                try {
+                    outbox.record(taskCopies, listCopies);
+                } catch (IOException e) {
+                    System.err.println("写入发件箱失败: " + e.getMessage());
+                    throw new UncheckedIOException(e);
                 }
-            }
+            }, saveExecutor);
+        } catch (RejectedExecutionException e) {
+            System.err.println("保存线程已关闭，修改未写入发件箱");
+            return CompletableFuture.failedFuture(e);
         }
-
-        // 清理已删除的任务
-        mainApp.uncompletedTasks.removeIf(Task::isDeleted);
-        mainApp.completedTasks.removeIf(Task::isDeleted);
-        Platform.runLater(() -> mainApp.refreshCurrentView());
-        System.out.println("mergeAndSave 本地uncompletedTasks: " + mainApp.uncompletedTasks.size());
-        System.out.println("mergeAndSave 本地completedTasks: " + mainApp.completedTasks.size());
-        System.out.println("mergeAndSave 本地deletedTasks: " + mainApp.deletedTasks.size());
-
-        // 合并自定义清单及其任务
-        Map<String, TaskList> localListMap = new HashMap<>();
-        for (TaskList l : mainApp.customLists) localListMap.put(l.getId(), l);
-
-        // 合并远程清单
-        for (TaskList remoteList : remoteData.getCustomLists()) {
-            remoteList.restoreFX();
-            TaskList localList = localListMap.get(remoteList.getId());
-            if (localList == null) {
-                mainApp.customLists.add(remoteList);
-                for (Task t : remoteList.getTasks()) t.setBelongsTo(remoteList);
-            } else {
-                // 合并清单下的任务
-                Map<String, Task> localTaskMap = new HashMap<>();
-                for (Task t : localList.getTasks()) localTaskMap.put(t.getId(), t);
-                
-                for (Task remoteTask : remoteList.getTasks()) {
-                    remoteTask.restoreFX();
-                    Task localTask = localTaskMap.get(remoteTask.getId());
-                    if (localTask == null) {
-                        if (!remoteTask.isDeleted()) {
-                            remoteTask.setBelongsTo(localList);
-                            localList.getTasks().add(remoteTask);
-                        }
-                    } else {
-                        if (remoteTask.getLastModified() > localTask.getLastModified()) {
-                            localTask.setName(remoteTask.getName());
-                            localTask.setCompleted(remoteTask.isCompleted());
-                            localTask.setDeleted(remoteTask.isDeleted());
-                            localTask.setLastModified(remoteTask.getLastModified());
+    }
+    // 分批推送发件箱直到清空：每批服务端确认后才从发件箱移除，失败时剩余内容留在发件箱中等下次推送
+    public CompletableFuture<Void> drainOutbox(Function<TaskSyncData, CompletableFuture<Void>> send) {
+        return CompletableFuture.supplyAsync(() -> {
+            try {
+                TaskOutbox.Batch batch = outbox.next();
+                if (batch != null) System.out.println("推送发件箱: 本批 " + batch.size() + " 条，共 " + outbox.size() + " 条待推送");
+                return batch;
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }, saveExecutor).thenCompose(batch -> {
+            if (batch == null) return CompletableFuture.completedFuture(null);
+            return send.apply(batch.data())
+                    .thenRunAsync(() -> {
+                        try {
+                            outbox.acknowledge(batch);
+                        } catch (IOException e) {
+                            throw new UncheckedIOException(e);
                         }
-                        localTask.setBelongsTo(localList);
-                    }
+                    }, saveExecutor)
+                    .thenCompose(v -> drainOutbox(send));
+        });
+    }
+    // 合并远程数据并保存：合并线程整理远程数据 -> FX 线程按ID合入任务仓库；
+    // 合并按提交顺序串行执行
+    public CompletableFuture<Void> mergeAndSave(TaskSyncData remoteData) {
+        // 如果远程数据为空（或服务端返回 304 未变化），不进行合并
+        if (remoteData == null || (remoteData.getTasks().isEmpty()
+                && remoteData.getDeletedTasks().isEmpty()
+                && remoteData.getCustomLists().isEmpty())) {
+            System.out.println("远程数据为空，跳过合并");
+            return CompletableFuture.completedFuture(null);
+        }
+        return CompletableFuture.runAsync(() -> {
+            long start = System.nanoTime();
+            TaskMergeEngine.Plan plan = TaskMergeEngine.plan(remoteData);
+            long planned = System.nanoTime();
+            if (plan.isEmpty()) {
+                System.out.println("合并计划为空（远程 " + plan.remoteCount + " 项），耗时 " + millis(planned - start) + " ms");
+                return;
+            }
+            onFxThread(() -> {
+                long applyStart = System.nanoTime();
+                if (!plan.apply(mainApp.repository, mainApp.deletedTasks)) {
+                    System.out.println("合并后本地数据无变化（远程 " + plan.remoteCount + " 项）");
+                    return null;
                 }
-                localList.getTasks().removeIf(Task::isDeleted);
+                mainApp.refreshCurrentView();
+                if (plan.listsChanged()) mainApp.refreshCustomListsUI();
+                System.out.println("合并完成: 远程 " + plan.remoteCount + " 项，后台计算 " + millis(planned - start)
+                        + " ms，FX 线程应用 " + millis(System.nanoTime() - applyStart) + " ms");
+                System.out.println("mergeAndSave 本地任务数: " + mainApp.repository.size());
+                System.out.println("mergeAndSave 本地deletedTasks: " + mainApp.deletedTasks.size());
+                requestSave();
+                return null;
+            });
+        }, mergeExecutor);
+    }
+    // 存储快照取自任务仓库的索引视图，全局任务和清单成员互不重复
+    private TaskStorage.Snapshot capture() {
+        TaskRepository repository = mainApp.repository;
+        return TaskStorage.capture(repository.uncompleted(), repository.completed(), repository.lists());
+    }
+    // 在 FX 线程执行并等待结果（只在合并线程上调用）
+    private static <T> T onFxThread(Supplier<T> action) {
+        CompletableFuture<T> result = new CompletableFuture<>();
+        Platform.runLater(() -> {
+            try {
+                result.complete(action.get());
+            } catch (Throwable e) {
+                result.completeExceptionally(e);
             }
-        }
-        mainApp.customLists.removeIf(TaskList::isDeleted);
-        saveData(true);
+        });
+        return result.join();
     }
-}
\ No newline at end of file
+}
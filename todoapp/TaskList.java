@@ -19,6 +19,14 @@ public class TaskList implements Serializable {
         this.lastModified = System.currentTimeMillis();
         this.tasks = FXCollections.observableArrayList();
     }
+    // 按已有字段还原清单（解码时使用，不生成新ID）
+    TaskList(String id, String name, boolean deleted, long lastModified) {
+        this.id = id;
+        this.name = name;
+        this.deleted = deleted;
+        this.lastModified = lastModified;
+        this.tasks = FXCollections.observableArrayList();
+    }
     public void restoreFX() {
         if (tasks == null) tasks = FXCollections.observableArrayList();
         for (Task t : tasks) {
@@ -0,0 +1,86 @@
+package todoapp;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import javafx.collections.ObservableList;
+// 远程数据合并：在后台线程把远程数据整理成按ID去重的计划，再在 FX 线程逐条合入任务仓库。
+// 合并规则不变：删除标记先移除，较新的远程修改覆盖本地，本地没有的远程任务加入；
+// 仓库按ID查找本地任务，应用的耗时只和远程数据量有关，不再扫描本地列表
+public class TaskMergeEngine {
+    private TaskMergeEngine() {}
+
+    // 在 FX 线程应用的合并计划；不引用本地数据
+    public static class Plan {
+        // 需要移除的任务ID（远程删除标记）
+        final Set<String> removedIds = new HashSet<>();
+        final List<Task> remoteDeleted = new ArrayList<>();
+        // 任务ID -> 远程最新版本，清单成员已带上清单ID
+        final Map<String, Task> tasks = new LinkedHashMap<>();
+        final List<TaskList> lists = new ArrayList<>();
+        int remoteCount;
+        private boolean listsChanged;
+
+        public boolean isEmpty() {
+            return removedIds.isEmpty() && tasks.isEmpty() && lists.isEmpty();
+        }
+
+        public boolean listsChanged() {
+            return listsChanged;
+        }
+
+        // 合入任务仓库（FX 线程），返回仓库是否发生了变化。先加清单，清单成员才能直接进入清单视图
+        public boolean apply(TaskRepository repository, ObservableList<Task> deletedTasks) {
+            Set<String> knownDeleted = new HashSet<>();
+            for (Task t : deletedTasks) knownDeleted.add(t.getId());
+            List<Task> newDeleted = new ArrayList<>();
+            for (Task t : remoteDeleted) {
+                if (knownDeleted.add(t.getId())) newDeleted.add(t);
+            }
+            deletedTasks.addAll(newDeleted);
+            boolean changed = false;
+            for (String id : removedIds) {
+                Task local = repository.get(id);
+                if (local != null) changed |= repository.remove(local);
+            }
+            List<TaskList> addLists = new ArrayList<>();
+            for (TaskList l : lists) {
+                if (!l.isDeleted() && repository.list(l.getId()) == null) addLists.add(l);
+            }
+            repository.addLists(addLists);
+            listsChanged = !addLists.isEmpty();
+            for (Task t : tasks.values()) changed |= repository.merge(t);
+            return changed || listsChanged;
+        }
+    }
+
+    // 整理远程数据（后台线程）：同一任务出现多次时取最新的，清单成员记上所属清单ID，
+    // 清单只保留元数据，成员经任务表进入清单
+    public static Plan plan(TaskSyncData remote) {
+        Plan plan = new Plan();
+        plan.remoteCount = remote.getTasks().size() + remote.getDeletedTasks().size() + remote.getCustomLists().size();
+        for (Task deleted : remote.getDeletedTasks()) {
+            plan.removedIds.add(deleted.getId());
+            plan.remoteDeleted.add(deleted);
+        }
+        for (Task r : remote.getTasks()) put(plan, r);
+        for (TaskList remoteList : remote.getCustomLists()) {
+            for (Task r : remoteList.getTasks()) {
+                if (r.getListId() == null) r.setListId(remoteList.getId());
+                put(plan, r);
+            }
+            remoteList.getTasks().clear();
+            plan.lists.add(remoteList);
+        }
+        return plan;
+    }
+
+    private static void put(Plan plan, Task r) {
+        if (plan.removedIds.contains(r.getId())) return;
+        Task seen = plan.tasks.get(r.getId());
+        if (seen == null || r.getLastModified() > seen.getLastModified()) plan.tasks.put(r.getId(), r);
+    }
+}
@@ -1,17 +1,15 @@
 package todoapp;
 
-import java.io.ByteArrayOutputStream;
 import java.io.IOException;
-import java.io.ObjectOutputStream;
-import java.io.ObjectInputStream;
-import java.io.ByteArrayInputStream;
 import java.net.URI;
 import java.net.http.HttpClient;
 import java.net.http.HttpRequest;
 import java.net.http.HttpResponse;
 import java.time.LocalDate;
+import java.util.stream.Stream;
 import java.util.concurrent.*;
 import java.util.function.Consumer;
+import java.util.function.LongConsumer;
 import java.util.function.Supplier;
 import com.google.gson.Gson;
 import com.google.gson.GsonBuilder;
@@ -20,7 +18,7 @@ import com.google.gson.stream.JsonReader;
 import com.google.gson.stream.JsonWriter;
 import javafx.application.Platform;
 import java.time.Duration;
-import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.UUID;
 
 public class TaskNetworkService {
     private final String baseUrl;
@@ -28,12 +26,23 @@ public class TaskNetworkService {
     private final Gson gson;
     private String userId;
     private final ScheduledExecutorService scheduler;
-    private ScheduledFuture<?> syncSchedule;
-    private final AtomicBoolean isSyncing;
-    private Consumer<TaskSyncData> onDataUpdated;
     private Consumer<Throwable> onError;
+    private volatile long changeCursor; // 增量拉取游标
+    private volatile boolean binaryWire = true; // 服务端是否接受二进制编码
+    private volatile boolean exchangeSupported = true; // 服务端是否提供推拉合一的接口
+    private volatile String lastEtag; // 上次全量拉取的 ETag
+    // 服务端推送连接
+    private final ExecutorService streamExecutor = Executors.newSingleThreadExecutor(r -> {
+        Thread t = new Thread(r, "task-change-stream");
+        t.setDaemon(true);
+        return t;
+    });
+    private volatile boolean streamConnected;
+    private volatile boolean streamClosed;
+    private static final long STREAM_MAX_BACKOFF_SECONDS = 60;
     private static final int RETRY_ATTEMPTS = 3;
-    private static final long SYNC_INTERVAL = 30; // 同步间隔（秒）
+    private static final long RETRY_BASE_MILLIS = 1_000;
+    private static final long RETRY_MAX_MILLIS = 30_000;
 
     public TaskNetworkService(String baseUrl) {
         this.baseUrl = baseUrl;
@@ -41,7 +50,6 @@ public class TaskNetworkService {
             .connectTimeout(Duration.ofSeconds(10))
             .build();
         this.scheduler = Executors.newSingleThreadScheduledExecutor();
-        this.isSyncing = new AtomicBoolean(false);
 
         gson = new GsonBuilder()
                 .registerTypeAdapter(LocalDate.class, new LocalDateAdapter())
@@ -50,79 +58,174 @@ public class TaskNetworkService {
 
     public void setUserId(String userId) {
         this.userId = userId;
-        startPeriodicSync();
     }
 
-    public void setCallbacks(Consumer<TaskSyncData> onDataUpdated, Consumer<Throwable> onError) {
-        this.onDataUpdated = onDataUpdated;
+    // 定时拉取和推送由 SyncCoordinator 统一调度，这里只负责请求本身
+    public void setErrorHandler(Consumer<Throwable> onError) {
         this.onError = onError;
     }
 
-    private void startPeriodicSync() {
-        if (syncSchedule != null) {
-            syncSchedule.cancel(false);
-        }
-        syncSchedule = scheduler.scheduleAtFixedRate(
-            this::performSync,
-            0, SYNC_INTERVAL, TimeUnit.SECONDS
-        );
+    // 全量拉取；服务端返回 304（数据未变化）时结果为 null
+    public CompletableFuture<TaskSyncData> fetchTasks() {
+        return fetchSyncData(() -> baseUrl + "/api/tasks/user/" + userId, true);
     }
-
-    private void performSync() {// 同步
-        if (!isSyncing.compareAndSet(false, true)) {
-            return; // 避免重复同步
-        }
-        fetchTasks()
-            .thenAccept(data -> {
-                if (onDataUpdated != null) {
-                    Platform.runLater(() -> onDataUpdated.accept(data));
-                }
-            })
-            .exceptionally(error -> {
-                handleError(error);
-                return null;
-            })
-            .whenComplete((v, t) -> isSyncing.set(false));
-
+    // 只拉取上次游标之后的变更
+    public CompletableFuture<TaskSyncData> fetchChanges() {
+        return fetchSyncData(() -> baseUrl + "/api/tasks/user/" + userId + "/changes?since=" + changeCursor, false);
     }
-
-    public CompletableFuture<TaskSyncData> fetchTasks() {
+    private CompletableFuture<TaskSyncData> fetchSyncData(Supplier<String> url, boolean conditional) {
         return retryOperation(() -> {
-            HttpRequest request = HttpRequest.newBuilder()
-                .uri(URI.create(baseUrl + "/api/tasks/user/" + userId))
-                .GET()
-                .build();
-            return client.sendAsync(request, HttpResponse.BodyHandlers.ofByteArray())
+            HttpRequest.Builder builder = HttpRequest.newBuilder()
+                .uri(URI.create(url.get()))
+                .header("Accept", TaskWireCodec.CONTENT_TYPE + ", " + TaskWireCodec.LEGACY_CONTENT_TYPE)
+                .GET();
+            String etag = lastEtag;
+            if (conditional && etag != null) {
+                builder.header("If-None-Match", etag);
+            }
+            return client.sendAsync(builder.build(), HttpResponse.BodyHandlers.ofByteArray())
                 .thenApply(response -> {
+                    if (conditional && response.statusCode() == 304) {
+                        return null; // 数据未变化
+                    }
                     if (response.statusCode() != 200) {
                         throw new RuntimeException("Server returned status: " + response.statusCode());
                     }
-                    try (ObjectInputStream ois = new ObjectInputStream(new ByteArrayInputStream(response.body()))) {
-                        return (TaskSyncData) ois.readObject();
-                    } catch (Exception e) {
+                    try {
+                        // 按内容识别二进制编码或旧的 Java 序列化格式
+                        TaskSyncData data = TaskWireCodec.read(response.body());
+                        changeCursor = data.getCursor();
+                        if (conditional) {
+                            lastEtag = response.headers().firstValue("ETag").orElse(null);
+                        }
+                        return data;
+                    } catch (IOException e) {
                         throw new RuntimeException("反序列化失败", e);
                     }
                 });
         });
     }
+    // 服务端推送的游标是否有本地还没拉到的变更
+    public boolean isBehind(long cursor) {
+        return cursor > changeCursor;
+    }
+    // 推送变更并在同一次往返里取回游标之后服务端的其他变更（不含这次推送的）；
+    // 旧服务端没有这个接口时退回单独推送，结果为 null
+    public CompletableFuture<TaskSyncData> exchange(TaskSyncData delta) {
+        if (!exchangeSupported) return syncTasks(delta).thenApply(v -> null);
+        String requestId = UUID.randomUUID().toString();
+        return retryOperation(() -> {
+            boolean binary = binaryWire;
+            byte[] bytes;
+            try {
+                bytes = TaskWireCodec.write(delta, binary);
+            } catch (IOException e) {
+                throw new RuntimeException("序列化失败", e);
+            }
+            HttpRequest request = HttpRequest.newBuilder()
+                    .uri(URI.create(baseUrl + "/api/tasks/exchange/" + userId + "?since=" + changeCursor))
+                    .header("Content-Type", binary ? TaskWireCodec.CONTENT_TYPE : TaskWireCodec.LEGACY_CONTENT_TYPE)
+                    .header("Accept", TaskWireCodec.CONTENT_TYPE + ", " + TaskWireCodec.LEGACY_CONTENT_TYPE)
+                    .header("X-Request-Id", requestId)
+                    .POST(HttpRequest.BodyPublishers.ofByteArray(bytes))
+                    .build();
+            return client.sendAsync(request, HttpResponse.BodyHandlers.ofByteArray())
+                    .thenApply(response -> {
+                        if (response.statusCode() == 404) {
+                            exchangeSupported = false;
+                            return null;
+                        }
+                        if (response.statusCode() == 415 && binary) {
+                            binaryWire = false; // 旧服务端，重试时改用旧格式
+                        }
+                        if (response.statusCode() != 200) {
+                            throw new RuntimeException("服务器返回状态码: " + response.statusCode());
+                        }
+                        try {
+                            TaskSyncData changes = TaskWireCodec.read(response.body());
+                            changeCursor = changes.getCursor();
+                            return changes;
+                        } catch (IOException e) {
+                            throw new RuntimeException("反序列化失败", e);
+                        }
+                    });
+        }).thenCompose(changes -> changes == null && !exchangeSupported
+                ? syncTasks(delta).thenApply(v -> null)
+                : CompletableFuture.completedFuture(changes));
+    }
+    // 推送连接是否可用；断开时调用方回退到轮询
+    public boolean isStreamConnected() {
+        return streamConnected;
+    }
+    // 订阅服务端变更推送；收到比本地游标新的变更时回调（参数为服务端游标），断线后指数退避重连
+    public void startChangeStream(LongConsumer onRemoteChange) {
+        streamExecutor.execute(() -> runChangeStream(onRemoteChange));
+    }
+    private void runChangeStream(LongConsumer onRemoteChange) {
+        long backoff = 1;
+        while (!streamClosed) {
+            try {
+                HttpRequest request = HttpRequest.newBuilder()
+                    .uri(URI.create(baseUrl + "/api/tasks/stream/" + userId))
+                    .header("Accept", "text/event-stream")
+                    .GET()
+                    .build();
+                HttpResponse<Stream<String>> response = client.send(request, HttpResponse.BodyHandlers.ofLines());
+                if (response.statusCode() != 200) {
+                    throw new IOException("Server returned status: " + response.statusCode());
+                }
+                streamConnected = true;
+                backoff = 1;
+                System.out.println("已连接服务端变更推送");
+                try (Stream<String> lines = response.body()) {
+                    lines.forEach(line -> {
+                        if (!line.startsWith("data:")) return;
+                        long cursor = Long.parseLong(line.substring(5).trim());
+                        if (cursor > changeCursor) onRemoteChange.accept(cursor);
+                    });
+                }
+            } catch (IOException | RuntimeException e) {
+                System.err.println("变更推送连接断开: " + e.getMessage());
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            } finally {
+                streamConnected = false;
+            }
+            if (streamClosed) return;
+            try {
+                TimeUnit.SECONDS.sleep(backoff);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+            backoff = Math.min(backoff * 2, STREAM_MAX_BACKOFF_SECONDS);
+        }
+    }
+    // 每次推送带一个请求ID，重试时不变；服务端据此识别响应丢失后的重发，不会重复合并
     public CompletableFuture<Void> syncTasks(TaskSyncData data) {
+        String requestId = UUID.randomUUID().toString();
         return retryOperation(() -> {
-            // 使用 Java 原生序列化
-            ByteArrayOutputStream bos = new ByteArrayOutputStream();
-            try (ObjectOutputStream oos = new ObjectOutputStream(bos)) {
-                oos.writeObject(data);
+            // 优先使用紧凑二进制编码，服务端不支持时回退到 Java 原生序列化
+            boolean binary = binaryWire;
+            byte[] bytes;
+            try {
+                bytes = TaskWireCodec.write(data, binary);
             } catch (IOException e) {
                 throw new RuntimeException("序列化失败", e);
             }
-            byte[] bytes = bos.toByteArray();
             HttpRequest request = HttpRequest.newBuilder()
                     .uri(URI.create(baseUrl + "/api/tasks/sync/" + userId))
-                    .header("Content-Type", "application/octet-stream")
+                    .header("Content-Type", binary ? TaskWireCodec.CONTENT_TYPE : TaskWireCodec.LEGACY_CONTENT_TYPE)
+                    .header("X-Request-Id", requestId)
                     .POST(HttpRequest.BodyPublishers.ofByteArray(bytes))
                     .build();
             // 修正异步响应处理
             return client.sendAsync(request, HttpResponse.BodyHandlers.discarding())
                     .thenApply(response -> {
+                        if (response.statusCode() == 415 && binary) {
+                            binaryWire = false; // 旧服务端，重试时改用旧格式
+                        }
                         if (response.statusCode() != 200) {
                             throw new RuntimeException("服务器返回状态码: " + response.statusCode());
                         }
@@ -147,7 +250,7 @@ public class TaskNetworkService {
                 if (attemptsLeft > 1) {
                     scheduler.schedule(
                         () -> retryOperation(operation, attemptsLeft - 1, future),
-                        2, TimeUnit.SECONDS
+                        retryDelayMillis(RETRY_ATTEMPTS - attemptsLeft), TimeUnit.MILLISECONDS
                     );
                 } else {
                     handleError(error);
@@ -157,6 +260,13 @@ public class TaskNetworkService {
             });
     }
 
+    // 指数退避加随机抖动：第 n 次重试等待 [上限/2, 上限) 之间的随机时间，上限从 1 秒起翻倍，
+    // 避免服务端恢复时所有客户端同时重试
+    static long retryDelayMillis(int retry) {
+        long cap = Math.min(RETRY_BASE_MILLIS << Math.min(retry, 20), RETRY_MAX_MILLIS);
+        return cap / 2 + ThreadLocalRandom.current().nextLong(cap / 2);
+    }
+
     private void handleError(Throwable error) {
         if (onError != null) {
             Platform.runLater(() -> onError.accept(error));
@@ -164,9 +274,8 @@ public class TaskNetworkService {
     }
 
     public void shutdown() {
-        if (syncSchedule != null) {
-            syncSchedule.cancel(false);
-        }
+        streamClosed = true;
+        streamExecutor.shutdownNow();
         scheduler.shutdown();
     }
     private static class LocalDateAdapter extends TypeAdapter<LocalDate> {
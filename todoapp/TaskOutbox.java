@@ -0,0 +1,371 @@
+package todoapp;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInput;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.CRC32;
+// 离线发件箱：待推送的任务和清单状态追加写入 todo_outbox_<user>.log，重启后继续推送。
+// 同一实体只保留最新状态；推送时按条数和字节数分批，服务端确认一批后追加一条确认记录，
+// 文件中已确认的部分超过阈值时重写压缩。所有方法只在本地写线程上调用
+public class TaskOutbox implements Closeable {
+    private static final int MAX_BATCH_ENTRIES = 500;
+    private static final int MAX_BATCH_BYTES = 256 * 1024;
+    private static final long COMPACT_BYTES = 256 * 1024;
+    private static final int MAX_RECORD_SIZE = 16 * 1024 * 1024;
+    // 记录类型
+    private static final byte PUT_TASK = 1;
+    private static final byte PUT_LIST = 2;
+    private static final byte ACK = 3;
+    private final Path file;
+    // 键为 "t"/"l" + 实体ID，按首次进入发件箱的顺序推送
+    private final Map<String, Entry> pending = new LinkedHashMap<>();
+    private FileChannel channel;
+    private long fileBytes;
+    private long compactedBytes; // 上次压缩后的文件大小，文件涨到它的两倍以上才再压缩
+    private long seq;
+    private boolean existed;
+
+    // 发件箱中的一条待推送状态，不可变
+    private static final class Entry {
+        final long seq;
+        final Task task;
+        final TaskList list;
+        final int size;
+        Entry(long seq, Task task, TaskList list) {
+            this.seq = seq;
+            this.task = task;
+            this.list = list;
+            String name = task != null ? task.getName() : list.getName();
+            this.size = 64 + (name == null ? 0 : name.length() * 3);
+        }
+    }
+
+    // 一次推送的批次：请求数据和各条目推送时的序号
+    public static final class Batch {
+        final TaskSyncData data;
+        private final Map<String, Long> seqs;
+        Batch(TaskSyncData data, Map<String, Long> seqs) {
+            this.data = data;
+            this.seqs = seqs;
+        }
+        public TaskSyncData data() { return data; }
+        public int size() { return seqs.size(); }
+    }
+
+    public TaskOutbox(Path file) {
+        this.file = file;
+    }
+
+    // 重放已有的发件箱；文件不存在说明此前没有使用过发件箱
+    public void open() throws IOException {
+        if (channel != null) return;
+        existed = Files.exists(file);
+        if (existed) replay();
+        Files.createDirectories(file.toAbsolutePath().getParent());
+        channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+        fileBytes = channel.size();
+        compactedBytes = fileBytes;
+        if (!pending.isEmpty()) System.out.println("发件箱中有 " + pending.size() + " 条未推送的修改");
+    }
+
+    public boolean existed() {
+        return existed;
+    }
+
+    public int size() {
+        return pending.size();
+    }
+
+    // 记下待推送的最新状态（传入的已是取自 FX 线程的副本），fsync 后返回。
+    // 先编码全部记录，写入成功后才更新内存中的发件箱，失败时内存与文件保持一致
+    public void record(Collection<Task> tasks, Collection<TaskList> lists) throws IOException {
+        open();
+        if (tasks.isEmpty() && lists.isEmpty()) return;
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        Map<String, Entry> added = new LinkedHashMap<>();
+        long next = seq;
+        for (Task t : tasks) {
+            Entry e = new Entry(++next, t, null);
+            added.put("t" + t.getId(), e);
+            writeRecord(out, PUT_TASK, o -> {
+                o.writeLong(e.seq);
+                writeTask(o, t);
+            });
+        }
+        for (TaskList l : lists) {
+            Entry e = new Entry(++next, null, l);
+            added.put("l" + l.getId(), e);
+            writeRecord(out, PUT_LIST, o -> {
+                o.writeLong(e.seq);
+                writeList(o, l);
+            });
+        }
+        append(bytes.toByteArray());
+        seq = next;
+        pending.putAll(added);
+    }
+
+    // 按发件顺序取下一批，没有待推送内容时返回 null
+    public Batch next() throws IOException {
+        open();
+        if (pending.isEmpty()) return null;
+        List<Task> tasks = new ArrayList<>();
+        List<Task> deleted = new ArrayList<>();
+        List<TaskList> lists = new ArrayList<>();
+        Map<String, Long> seqs = new HashMap<>();
+        int bytes = 0;
+        for (Map.Entry<String, Entry> me : pending.entrySet()) {
+            Entry e = me.getValue();
+            if (!seqs.isEmpty() && (seqs.size() >= MAX_BATCH_ENTRIES || bytes + e.size > MAX_BATCH_BYTES)) break;
+            if (e.list != null) {
+                lists.add(e.list);
+            } else if (e.task.isDeleted()) {
+                deleted.add(e.task);
+            } else {
+                tasks.add(e.task);
+            }
+            seqs.put(me.getKey(), e.seq);
+            bytes += e.size;
+        }
+        return new Batch(new TaskSyncData(tasks, deleted, lists), seqs);
+    }
+
+    // 服务端确认了这一批：移除推送后没有再被修改的条目
+    public void acknowledge(Batch batch) throws IOException {
+        open();
+        int removed = 0;
+        for (Map.Entry<String, Long> e : batch.seqs.entrySet()) {
+            Entry current = pending.get(e.getKey());
+            if (current != null && current.seq == e.getValue()) {
+                pending.remove(e.getKey());
+                removed++;
+            }
+        }
+        if (removed == 0) return;
+        if (pending.isEmpty() || fileBytes > Math.max(COMPACT_BYTES, compactedBytes * 2)) {
+            compact();
+            return;
+        }
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        writeRecord(new DataOutputStream(bytes), ACK, o -> {
+            o.writeInt(batch.seqs.size());
+            for (Map.Entry<String, Long> e : batch.seqs.entrySet()) {
+                o.writeUTF(e.getKey());
+                o.writeLong(e.getValue());
+            }
+        });
+        append(bytes.toByteArray());
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (channel != null) channel.close();
+        channel = null;
+    }
+
+    // 写入失败时截回写入前的长度，不在文件里留下残缺记录
+    private void append(byte[] bytes) throws IOException {
+        ByteBuffer buf = ByteBuffer.wrap(bytes);
+        try {
+            while (buf.hasRemaining()) channel.write(buf);
+            channel.force(false);
+        } catch (IOException e) {
+            try {
+                channel.truncate(fileBytes);
+            } catch (IOException ignored) {
+                // 重放时会在残缺处停止并截断
+            }
+            throw e;
+        }
+        fileBytes += bytes.length;
+    }
+
+    // 只保留未确认的条目：写临时文件、fsync、原子替换
+    private void compact() throws IOException {
+        Path tmp = file.resolveSibling(file.getFileName() + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(tmp)))) {
+            for (Entry e : pending.values()) {
+                writeRecord(out, e.task != null ? PUT_TASK : PUT_LIST, o -> {
+                    o.writeLong(e.seq);
+                    if (e.task != null) writeTask(o, e.task); else writeList(o, e.list);
+                });
+            }
+        }
+        try (FileChannel fc = FileChannel.open(tmp, StandardOpenOption.WRITE)) {
+            fc.force(true);
+        }
+        channel.close();
+        Files.move(tmp, file, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+        fileBytes = channel.size();
+        compactedBytes = fileBytes;
+    }
+
+    // 重放发件箱文件，遇到损坏或不完整的尾部即停止并截掉
+    private void replay() throws IOException {
+        long validBytes = 0;
+        boolean torn = false;
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file)))) {
+            while (true) {
+                int len;
+                try {
+                    len = in.readInt();
+                } catch (EOFException e) {
+                    break;
+                }
+                if (len <= 0 || len > MAX_RECORD_SIZE) {
+                    torn = true;
+                    break;
+                }
+                byte[] body = new byte[len];
+                int crc;
+                try {
+                    crc = in.readInt();
+                    in.readFully(body);
+                } catch (EOFException e) {
+                    torn = true;
+                    break;
+                }
+                if (crc(body) != crc) {
+                    torn = true;
+                    break;
+                }
+                apply(new DataInputStream(new ByteArrayInputStream(body)));
+                validBytes += 8 + len;
+            }
+        }
+        if (torn) {
+            System.err.println("发件箱尾部损坏，已截断: " + file);
+            try (FileChannel fc = FileChannel.open(file, StandardOpenOption.WRITE)) {
+                fc.truncate(validBytes);
+                fc.force(true);
+            }
+        }
+    }
+
+    private void apply(DataInput in) throws IOException {
+        byte type = in.readByte();
+        switch (type) {
+            case PUT_TASK: {
+                long s = in.readLong();
+                Task t = readTask(in);
+                pending.put("t" + t.getId(), new Entry(s, t, null));
+                seq = Math.max(seq, s);
+                break;
+            }
+            case PUT_LIST: {
+                long s = in.readLong();
+                TaskList l = readList(in);
+                pending.put("l" + l.getId(), new Entry(s, null, l));
+                seq = Math.max(seq, s);
+                break;
+            }
+            case ACK: {
+                int n = in.readInt();
+                for (int i = 0; i < n; i++) {
+                    String key = in.readUTF();
+                    long s = in.readLong();
+                    Entry current = pending.get(key);
+                    if (current != null && current.seq == s) pending.remove(key);
+                }
+                break;
+            }
+            default:
+                throw new IOException("未知的发件箱记录类型: " + type);
+        }
+    }
+
+    private interface RecordBody {
+        void write(DataOutputStream out) throws IOException;
+    }
+
+    // 记录格式：长度 | CRC32 | 类型 + 字段
+    private static void writeRecord(DataOutputStream out, byte type, RecordBody body) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(64);
+        DataOutputStream o = new DataOutputStream(bytes);
+        o.writeByte(type);
+        body.write(o);
+        byte[] b = bytes.toByteArray();
+        out.writeInt(b.length);
+        out.writeInt(crc(b));
+        out.write(b);
+    }
+
+    private static void writeTask(DataOutputStream out, Task t) throws IOException {
+        out.writeUTF(t.getId());
+        writeName(out, t.getName());
+        out.writeBoolean(t.isCompleted());
+        out.writeBoolean(t.isDeleted());
+        out.writeLong(t.getLastModified());
+        out.writeBoolean(t.getListId() != null);
+        if (t.getListId() != null) out.writeUTF(t.getListId());
+    }
+
+    private static Task readTask(DataInput in) throws IOException {
+        String id = in.readUTF();
+        String name = readName(in);
+        Task t = new Task(id, name, in.readBoolean(), in.readBoolean(), in.readLong());
+        if (in.readBoolean()) t.setListId(in.readUTF());
+        return t;
+    }
+
+    private static void writeList(DataOutputStream out, TaskList l) throws IOException {
+        out.writeUTF(l.getId());
+        writeName(out, l.getName());
+        out.writeBoolean(l.isDeleted());
+        out.writeLong(l.getLastModified());
+    }
+
+    private static TaskList readList(DataInput in) throws IOException {
+        String id = in.readUTF();
+        String name = readName(in);
+        return new TaskList(id, name, in.readBoolean(), in.readLong());
+    }
+
+    // 名称：字节数（-1 表示 null）+ UTF-8
+    private static void writeName(DataOutputStream out, String name) throws IOException {
+        if (name == null) {
+            out.writeInt(-1);
+            return;
+        }
+        byte[] b = name.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(b.length);
+        out.write(b);
+    }
+
+    private static String readName(DataInput in) throws IOException {
+        int len = in.readInt();
+        if (len < 0) return null;
+        if (len > MAX_RECORD_SIZE) throw new IOException("发件箱记录中的名称过长: " + len);
+        byte[] b = new byte[len];
+        in.readFully(b);
+        return new String(b, StandardCharsets.UTF_8);
+    }
+
+    private static int crc(byte[] data) {
+        CRC32 crc = new CRC32();
+        crc.update(data);
+        return (int) crc.getValue();
+    }
+}
@@ -0,0 +1,242 @@
+package todoapp;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+// 服务端按用户的二级索引，供分页查询使用。未删除的任务按"范围（全部或某个清单）× 完成状态"分区，
+// 每个分区各有按修改时间和按名称（不区分大小写）排序的有序集合。查询只读取条件对应的分区，
+// 排序字段上的条件（按时间排序时的修改时间、按名称排序时的名称前缀）直接定位范围，另一个条件逐条过滤；
+// 不限完成状态时把两个分区按顺序归并。分页用上一页最后一条的排序键和ID（keyset），翻页不受前面页数影响。
+// 合并线程写入、请求线程并发读取，集合都是并发跳表，读不加锁
+public class TaskQueryIndex {
+    public static final int DEFAULT_LIMIT = 50;
+    public static final int MAX_LIMIT = 500;
+    private static final String ALL = "\0all";
+    private static final Object MIN_KEY = new Object();
+    private static final Object MAX_KEY = new Object();
+    static final Comparator<SortKey> BY_MODIFIED = (a, b) -> {
+        int c = Long.compare(a.modified, b.modified);
+        return c != 0 ? c : compareKeys(a.id, b.id);
+    };
+    static final Comparator<SortKey> BY_NAME = (a, b) -> {
+        int c = String.CASE_INSENSITIVE_ORDER.compare(a.name, b.name);
+        return c != 0 ? c : compareKeys(a.id, b.id);
+    };
+    private final ConcurrentHashMap<String, Partition> partitions = new ConcurrentHashMap<>();
+
+    public enum Sort { MODIFIED, NAME }
+
+    // 排序键：修改时间、名称和任务本身（同键时按ID排序）；定位范围时 id 可以是 MIN_KEY/MAX_KEY
+    static final class SortKey {
+        final long modified;
+        final String name;
+        final Object id;
+        SortKey(long modified, String name, Object id) {
+            this.modified = modified;
+            this.name = name == null ? "" : name;
+            this.id = id;
+        }
+        static SortKey of(ServerTask t) {
+            return new SortKey(t.getLastModified(), t.getName(), t);
+        }
+    }
+
+    private static final class Partition {
+        final NavigableMap<SortKey, ServerTask> byModified = new ConcurrentSkipListMap<>(BY_MODIFIED);
+        final NavigableMap<SortKey, ServerTask> byName = new ConcurrentSkipListMap<>(BY_NAME);
+        void add(SortKey k, ServerTask t) {
+            byModified.put(k, t);
+            byName.put(k, t);
+        }
+        void remove(SortKey k) {
+            byModified.remove(k);
+            byName.remove(k);
+        }
+    }
+
+    // 查询条件；为 null 的条件不限制
+    public static final class Query {
+        final String listId;
+        final Boolean completed;
+        final Long modifiedSince; // 只要修改时间晚于此时的
+        final String namePrefix;  // 不区分大小写
+        final Sort sort;
+        final boolean descending;
+        final String after;       // 上一页返回的翻页标记
+        final int limit;
+        public Query(String listId, Boolean completed, Long modifiedSince, String namePrefix,
+                     Sort sort, boolean descending, String after, int limit) {
+            this.listId = listId;
+            this.completed = completed;
+            this.modifiedSince = modifiedSince;
+            this.namePrefix = namePrefix == null || namePrefix.isEmpty() ? null : namePrefix;
+            this.sort = sort;
+            this.descending = descending;
+            this.after = after;
+            this.limit = Math.max(1, Math.min(limit, MAX_LIMIT));
+        }
+    }
+
+    // 一页结果；next 为下一页的翻页标记，没有下一页时为 null
+    public static final class Page {
+        public final List<ServerTask> tasks;
+        public final String next;
+        Page(List<ServerTask> tasks, String next) {
+            this.tasks = tasks;
+            this.next = next;
+        }
+    }
+
+    public void add(ServerTask t) {
+        SortKey k = SortKey.of(t);
+        partition(ALL, t.isCompleted()).add(k, t);
+        if (t.getListId() != null) partition(t.getListId(), t.isCompleted()).add(k, t);
+    }
+
+    // 按加入时的同一个任务对象移除（排序键取自它的字段）
+    public void remove(ServerTask t) {
+        SortKey k = SortKey.of(t);
+        remove(ALL, t.isCompleted(), k);
+        if (t.getListId() != null) remove(t.getListId(), t.isCompleted(), k);
+    }
+
+    // 翻页标记格式不对时抛出 IllegalArgumentException
+    public Page query(Query q) {
+        Comparator<SortKey> order = q.sort == Sort.NAME ? BY_NAME : BY_MODIFIED;
+        SortKey after = q.after == null ? null : decode(q.after, q.sort);
+        SortKey start = rangeStart(q);
+        // 翻页位置和范围起点取更靠后的一个
+        boolean fromAfter = after != null && (start == null
+                || (q.descending ? order.compare(after, start) <= 0 : order.compare(after, start) >= 0));
+        if (q.descending) order = order.reversed();
+        String scope = q.listId != null ? q.listId : ALL;
+        List<Iterator<Map.Entry<SortKey, ServerTask>>> sources = new ArrayList<>(2);
+        for (boolean completed : new boolean[]{false, true}) {
+            if (q.completed != null && q.completed != completed) continue;
+            Partition p = partitions.get(key(scope, completed));
+            if (p != null) {
+                NavigableMap<SortKey, ServerTask> index = q.sort == Sort.NAME ? p.byName : p.byModified;
+                sources.add(scan(index, q.descending, fromAfter ? after : start, !fromAfter).entrySet().iterator());
+            }
+        }
+        // 按排序顺序归并各分区，排序字段上的条件一旦不满足后面都不会满足
+        List<Map.Entry<SortKey, ServerTask>> heads = new ArrayList<>(sources.size());
+        for (Iterator<Map.Entry<SortKey, ServerTask>> source : sources) heads.add(advance(source));
+        List<ServerTask> page = new ArrayList<>(Math.min(q.limit, 64));
+        boolean more = false;
+        while (true) {
+            int next = -1;
+            for (int i = 0; i < heads.size(); i++) {
+                Map.Entry<SortKey, ServerTask> head = heads.get(i);
+                if (head != null && (next < 0 || order.compare(head.getKey(), heads.get(next).getKey()) < 0)) next = i;
+            }
+            if (next < 0) break;
+            ServerTask t = heads.get(next).getValue();
+            heads.set(next, advance(sources.get(next)));
+            if (!inSortRange(t, q)) {
+                heads.set(next, null);
+                continue;
+            }
+            if (!matchesFilter(t, q)) continue;
+            if (page.size() == q.limit) {
+                more = true;
+                break;
+            }
+            page.add(t);
+        }
+        String nextToken = more ? encode(page.get(page.size() - 1), q.sort) : null;
+        return new Page(page, nextToken);
+    }
+
+    // 从起点开始按查询方向遍历；起点是翻页位置时不含它本身
+    private static NavigableMap<SortKey, ServerTask> scan(NavigableMap<SortKey, ServerTask> index, boolean descending,
+                                                          SortKey from, boolean inclusive) {
+        if (!descending) return from == null ? index : index.tailMap(from, inclusive);
+        return from == null ? index.descendingMap() : index.headMap(from, inclusive).descendingMap();
+    }
+
+    // 排序字段上条件的起点：升序时是范围的最小端，降序时是最大端
+    private static SortKey rangeStart(Query q) {
+        if (q.sort == Sort.NAME && q.namePrefix != null) {
+            return q.descending
+                    ? new SortKey(0, q.namePrefix + '\uFFFF', MAX_KEY)
+                    : new SortKey(0, q.namePrefix, MIN_KEY);
+        }
+        if (q.sort == Sort.MODIFIED && q.modifiedSince != null && !q.descending) {
+            return new SortKey(q.modifiedSince, null, MAX_KEY);
+        }
+        return null;
+    }
+
+    private static boolean inSortRange(ServerTask t, Query q) {
+        if (q.sort == Sort.NAME) return q.namePrefix == null || hasPrefix(t, q.namePrefix);
+        return q.modifiedSince == null || t.getLastModified() > q.modifiedSince;
+    }
+
+    // 排序字段以外的条件
+    private static boolean matchesFilter(ServerTask t, Query q) {
+        if (q.sort == Sort.NAME) return q.modifiedSince == null || t.getLastModified() > q.modifiedSince;
+        return q.namePrefix == null || hasPrefix(t, q.namePrefix);
+    }
+
+    private static boolean hasPrefix(ServerTask t, String prefix) {
+        return nameOf(t).regionMatches(true, 0, prefix, 0, prefix.length());
+    }
+
+    private static Map.Entry<SortKey, ServerTask> advance(Iterator<Map.Entry<SortKey, ServerTask>> it) {
+        return it.hasNext() ? it.next() : null;
+    }
+
+    private Partition partition(String scope, boolean completed) {
+        return partitions.computeIfAbsent(key(scope, completed), k -> new Partition());
+    }
+
+    private void remove(String scope, boolean completed, SortKey k) {
+        Partition p = partitions.get(key(scope, completed));
+        if (p != null) p.remove(k);
+    }
+
+    private static String key(String scope, boolean completed) {
+        return scope + (completed ? "\0c" : "\0u");
+    }
+
+    // 翻页标记：排序键 + 换行 + 任务ID，Base64URL 编码
+    private static String encode(ServerTask last, Sort sort) {
+        String sortKey = sort == Sort.NAME ? nameOf(last) : Long.toString(last.getLastModified());
+        byte[] raw = (sortKey + '\n' + last.getId()).getBytes(StandardCharsets.UTF_8);
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(raw);
+    }
+
+    private static SortKey decode(String token, Sort sort) {
+        String raw = new String(Base64.getUrlDecoder().decode(token), StandardCharsets.UTF_8);
+        int split = raw.lastIndexOf('\n');
+        if (split < 0) throw new IllegalArgumentException("无效的翻页标记");
+        String sortKey = raw.substring(0, split);
+        ServerTask key = ServerTask.probe(raw.substring(split + 1));
+        if (sort == Sort.NAME) return new SortKey(0, sortKey, key);
+        try {
+            return new SortKey(Long.parseLong(sortKey), null, key);
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("翻页标记与排序方式不符");
+        }
+    }
+
+    private static String nameOf(ServerTask t) {
+        return t.getName() == null ? "" : t.getName();
+    }
+
+    // 同一排序键下按ID排序（见 ServerTask.compareIds）；MIN_KEY/MAX_KEY 只用于定位范围
+    private static int compareKeys(Object a, Object b) {
+        if (a == b) return 0;
+        if (a == MIN_KEY || b == MAX_KEY) return -1;
+        if (a == MAX_KEY || b == MIN_KEY) return 1;
+        return ServerTask.compareIds((ServerTask) a, (ServerTask) b);
+    }
+}
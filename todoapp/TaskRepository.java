@@ -0,0 +1,179 @@
+package todoapp;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import javafx.collections.FXCollections;
+import javafx.collections.ObservableList;
+// 客户端任务仓库：按ID索引的任务表是唯一的数据源，同一个任务只有一个实例。
+// 界面和存储用的列表都是按任务字段维护的索引视图：不属于任何清单的任务按完成状态在 uncompleted/completed 中
+// （今天、收集箱、已完成），属于清单的任务只在该清单的 getTasks() 中。增删和修改只调整受影响的视图。
+// 清单按ID和名称索引，任务名称另有 n-gram 索引用于跨清单搜索。只在 FX 线程使用
+public class TaskRepository {
+    private final MainBorderPane mainApp;
+    private final Map<String, Task> tasks = new HashMap<>();
+    private final Map<String, TaskList> listsById = new HashMap<>();
+    private final Map<String, TaskList> listsByName = new HashMap<>();
+    private final ObservableList<Task> uncompleted = FXCollections.observableArrayList();
+    private final ObservableList<Task> completed = FXCollections.observableArrayList();
+    private final ObservableList<TaskList> lists = FXCollections.observableArrayList();
+    private final TaskSearchIndex<Task> searchIndex = new TaskSearchIndex<>();
+
+    public TaskRepository(MainBorderPane mainApp) {
+        this.mainApp = mainApp;
+    }
+
+    public Task get(String id) { return tasks.get(id); }
+    public int size() { return tasks.size(); }
+    public Collection<Task> tasks() { return Collections.unmodifiableCollection(tasks.values()); }
+    public TaskList list(String id) { return listsById.get(id); }
+    public TaskList listByName(String name) { return listsByName.get(name); }
+    // 索引视图，只读使用；修改都经过仓库
+    public ObservableList<Task> uncompleted() { return uncompleted; }
+    public ObservableList<Task> completed() { return completed; }
+    public ObservableList<TaskList> lists() { return lists; }
+
+    // 在所有任务（全局任务和各清单）中按名称搜索，结果按相关度排序
+    public List<Task> search(String query, int limit) {
+        return searchIndex.search(query, limit);
+    }
+
+    // 加入新任务；ID已存在时不做任何事并返回 false
+    public boolean add(Task task) {
+        if (tasks.putIfAbsent(task.getId(), task) != null) return false;
+        if (mainApp != null) task.restoreListener(mainApp);
+        viewOf(task).add(task);
+        searchIndex.put(task.getId(), task.getName(), task);
+        return true;
+    }
+
+    // 从任务表和所在视图中移除；任务不在仓库中时返回 false
+    public boolean remove(Task task) {
+        Task current = tasks.remove(task.getId());
+        if (current == null) return false;
+        viewOf(current).remove(current);
+        searchIndex.remove(current.getId());
+        return true;
+    }
+
+    // 任务的完成状态已经改变（复选框）：全局任务在未完成和已完成视图之间移动，清单中的任务不用移动
+    public void completionChanged(Task task) {
+        if (task.getBelongsTo() != null) return;
+        ObservableList<Task> to = task.isCompleted() ? completed : uncompleted;
+        ObservableList<Task> from = task.isCompleted() ? uncompleted : completed;
+        if (from.remove(task)) to.add(task);
+    }
+
+    // 任务改名（Task.setName 调用）：只更新仓库中的实例的索引
+    public void nameChanged(Task task) {
+        if (tasks.get(task.getId()) == task) searchIndex.put(task.getId(), task.getName(), task);
+    }
+
+    // 合入另一份副本（本地文件或服务端）：没有的加入，较新的覆盖本地字段，被删除的移除。
+    // 返回仓库是否发生了变化
+    public boolean merge(Task incoming) {
+        Task local = tasks.get(incoming.getId());
+        if (local == null) {
+            return !incoming.isDeleted() && add(incoming);
+        }
+        if (local == incoming || incoming.getLastModified() <= local.getLastModified()) return false;
+        if (incoming.isDeleted()) {
+            remove(local);
+            return true;
+        }
+        ObservableList<Task> before = viewOf(local);
+        local.mergeName(incoming.getName());
+        local.mergeCompleted(incoming.isCompleted());
+        local.setListId(incoming.getListId());
+        local.setLastModified(incoming.getLastModified());
+        searchIndex.put(local.getId(), local.getName(), local);
+        ObservableList<Task> after = viewOf(local);
+        if (before != after) {
+            before.remove(local);
+            after.add(local);
+        }
+        return true;
+    }
+
+    public void addList(TaskList list) {
+        addLists(Collections.singletonList(list));
+    }
+
+    // 加入新清单：已加入的全局任务里指向这些清单的移入清单（清单晚于任务到达时）
+    public void addLists(Collection<TaskList> added) {
+        Set<String> ids = new HashSet<>();
+        for (TaskList l : added) {
+            if (listsById.putIfAbsent(l.getId(), l) != null) continue;
+            listsByName.putIfAbsent(l.getName(), l);
+            l.restoreFX();
+            lists.add(l);
+            ids.add(l.getId());
+        }
+        if (ids.isEmpty()) return;
+        adopt(uncompleted, ids);
+        adopt(completed, ids);
+    }
+
+    // 删除清单及其中的任务
+    public void removeList(TaskList list) {
+        if (listsById.remove(list.getId()) == null) return;
+        lists.remove(list);
+        if (listsByName.get(list.getName()) == list) {
+            listsByName.remove(list.getName());
+            for (TaskList l : lists) listsByName.putIfAbsent(l.getName(), l);
+        }
+        for (Task t : list.getTasks()) {
+            tasks.remove(t.getId());
+            searchIndex.remove(t.getId());
+        }
+        list.getTasks().clear();
+    }
+
+    // 载入本地数据。旧数据里同一任务可能既在全局列表又在清单中，按ID合并为一个实例；
+    // 同名清单保留后出现的一个
+    public void load(TaskData data) {
+        Map<String, TaskList> byName = new HashMap<>();
+        for (TaskList l : data.getCustomLists()) byName.put(l.getName(), l);
+        List<TaskList> kept = new ArrayList<>(byName.size());
+        for (TaskList l : data.getCustomLists()) {
+            if (byName.get(l.getName()) == l) kept.add(l);
+        }
+        // 清单成员先取出，清单以空列表加入，成员按清单ID经任务表进入清单视图
+        List<Task> members = new ArrayList<>();
+        for (TaskList l : kept) {
+            for (Task t : l.getTasks()) {
+                t.setListId(l.getId());
+                members.add(t);
+            }
+            l.getTasks().clear();
+        }
+        addLists(kept);
+        for (Task t : data.getUncompletedTasks()) merge(t);
+        for (Task t : data.getCompletedTasks()) merge(t);
+        for (Task t : members) merge(t);
+    }
+
+    // 任务所在的视图：所属清单已知时是清单的成员列表，否则按完成状态进入全局视图
+    private ObservableList<Task> viewOf(Task task) {
+        TaskList list = task.getListId() == null ? null : listsById.get(task.getListId());
+        // 所属清单还没到达时保留清单ID，清单加入后再移入
+        if (list != null || task.getListId() == null) task.setBelongsTo(list);
+        if (list != null) return list.getTasks();
+        return task.isCompleted() ? completed : uncompleted;
+    }
+
+    private void adopt(ObservableList<Task> view, Set<String> listIds) {
+        List<Task> moved = new ArrayList<>();
+        for (Task t : view) {
+            if (t.getListId() != null && listIds.contains(t.getListId())) moved.add(t);
+        }
+        if (moved.isEmpty()) return;
+        view.removeAll(new HashSet<>(moved));
+        for (Task t : moved) viewOf(t).add(t);
+    }
+}
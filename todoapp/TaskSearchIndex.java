@@ -0,0 +1,233 @@
+package todoapp;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.PriorityQueue;
+// 任务名称的内存 n-gram 索引，客户端和服务端共用。名称转小写后按单字和连续三字切分，
+// 倒排表里是递增分配的文档号，追加即有序。查询不少于三个字时取它各个三字中最短的倒排表，更短时取单字的，
+// 候选逐个做子串匹配确认（比倒排表求交更快），按"完全相同 > 前缀 > 词首 > 其他位置"、匹配位置、名称长度排序取前若干条。
+// 改名和删除只把旧文档标记失效，失效文档多于有效文档时整体重建。方法加锁，服务端可以并发查询
+public class TaskSearchIndex<T> {
+    public static final int MAX_RESULTS = 200;
+    private static final long UNIGRAM = 1L << 48;
+    private static final long TRIGRAM = 2L << 48;
+    private static final int MIN_REBUILD = 1024;
+    private final Map<Object, Integer> docOf = new HashMap<>();
+    // n-gram -> 倒排表，开放寻址避免装箱；键 0 表示空槽（n-gram 键都带类型位，不为 0）
+    private long[] gramKeys = new long[1024];
+    private Postings[] gramPostings = new Postings[1024];
+    private int gramCount;
+    private Object[] keys = new Object[64];
+    private String[] names = new String[64];
+    private Object[] values = new Object[64];
+    private int docCount;
+    private int liveCount;
+
+    // 一个 n-gram 的倒排表
+    private static final class Postings {
+        int[] docs = new int[4];
+        int size;
+        void add(int doc) {
+            if (size > 0 && docs[size - 1] == doc) return; // 同一名称里重复出现的 n-gram
+            if (size == docs.length) docs = Arrays.copyOf(docs, size * 2);
+            docs[size++] = doc;
+        }
+    }
+
+    // 加入或更新（改名）一条记录
+    public synchronized void put(Object key, String name, T value) {
+        Integer old = docOf.get(key);
+        String normalized = normalize(name);
+        if (old != null) {
+            // key 可能是与原 key 相等的新对象（服务端用任务记录作 key），一并替换，不保留旧对象
+            if (normalized.equals(names[old])) {
+                if (keys[old] != key) {
+                    docOf.remove(key);
+                    docOf.put(key, old);
+                    keys[old] = key;
+                }
+                values[old] = value;
+                return;
+            }
+            docOf.remove(key);
+            retire(old);
+        }
+        int doc = docCount++;
+        if (doc == keys.length) {
+            int capacity = doc * 2;
+            keys = Arrays.copyOf(keys, capacity);
+            names = Arrays.copyOf(names, capacity);
+            values = Arrays.copyOf(values, capacity);
+        }
+        keys[doc] = key;
+        names[doc] = normalized;
+        values[doc] = value;
+        docOf.put(key, doc);
+        liveCount++;
+        indexDoc(doc);
+        if (docCount - liveCount > Math.max(MIN_REBUILD, liveCount)) rebuild();
+    }
+
+    public synchronized void remove(Object key) {
+        Integer doc = docOf.remove(key);
+        if (doc != null) retire(doc);
+    }
+
+    public synchronized int size() {
+        return liveCount;
+    }
+
+    public synchronized void clear() {
+        docOf.clear();
+        clearGrams();
+        keys = new Object[64];
+        names = new String[64];
+        values = new Object[64];
+        docCount = 0;
+        liveCount = 0;
+    }
+
+    // 按相关度排序的匹配结果，最多 limit 条
+    @SuppressWarnings("unchecked")
+    public synchronized List<T> search(String query, int limit) {
+        String q = normalize(query);
+        limit = Math.min(limit, MAX_RESULTS);
+        if (q.isEmpty() || limit <= 0) return Collections.emptyList();
+        // 候选取查询中各个 n-gram 里最短的倒排表，有一个 n-gram 不存在就没有结果
+        Postings smallest = null;
+        boolean shortQuery = q.length() < 3;
+        for (int i = 0; i < (shortQuery ? q.length() : q.length() - 2); i++) {
+            Postings p = postings(shortQuery ? UNIGRAM | q.charAt(i) : trigram(q, i), false);
+            if (p == null) return Collections.emptyList();
+            if (smallest == null || p.size < smallest.size) smallest = p;
+        }
+        // 大顶堆保留得分最小（最相关）的 limit 条
+        PriorityQueue<Long> top = new PriorityQueue<>(limit + 1, Collections.reverseOrder());
+        for (int i = 0; i < smallest.size; i++) {
+            int doc = smallest.docs[i];
+            if (keys[doc] == null) continue; // 已失效
+            String name = names[doc];
+            int pos = name.indexOf(q);
+            if (pos < 0) continue;
+            long score = score(name, q, pos, doc);
+            if (top.size() == limit) {
+                if (score >= top.peek()) continue;
+                top.poll();
+            }
+            top.add(score);
+        }
+        Long[] ranked = top.toArray(new Long[0]);
+        Arrays.sort(ranked);
+        List<T> result = new ArrayList<>(ranked.length);
+        for (Long score : ranked) result.add((T) values[(int) (score & 0xFFFFFFFFL)]);
+        return result;
+    }
+
+    // 得分越小越相关：匹配类型 | 匹配位置 | 名称长度 | 文档号（先加入的在前）
+    private static long score(String name, String q, int pos, int doc) {
+        long tier;
+        if (pos == 0) {
+            tier = name.length() == q.length() ? 0 : 1;
+        } else {
+            tier = Character.isLetterOrDigit(name.charAt(pos - 1)) ? 3 : 2;
+        }
+        return tier << 61 | (long) Math.min(pos, 0x3FFF) << 47 | (long) Math.min(name.length(), 0x7FFF) << 32 | doc;
+    }
+
+    private void retire(int doc) {
+        keys[doc] = null;
+        names[doc] = null;
+        values[doc] = null;
+        liveCount--;
+    }
+
+    private void indexDoc(int doc) {
+        String name = names[doc];
+        for (int i = 0; i < name.length(); i++) {
+            postings(UNIGRAM | name.charAt(i), true).add(doc);
+            if (i + 3 <= name.length()) postings(trigram(name, i), true).add(doc);
+        }
+    }
+
+    // 去掉失效文档，按原顺序重新编号并重建倒排表
+    private void rebuild() {
+        Object[] oldKeys = keys;
+        String[] oldNames = names;
+        Object[] oldValues = values;
+        int oldCount = docCount;
+        int capacity = Math.max(64, Integer.highestOneBit(Math.max(liveCount, 1)) * 2);
+        keys = new Object[capacity];
+        names = new String[capacity];
+        values = new Object[capacity];
+        docCount = 0;
+        clearGrams();
+        docOf.clear();
+        for (int i = 0; i < oldCount; i++) {
+            if (oldKeys[i] == null) continue;
+            int doc = docCount++;
+            keys[doc] = oldKeys[i];
+            names[doc] = oldNames[i];
+            values[doc] = oldValues[i];
+            docOf.put(keys[doc], doc);
+            indexDoc(doc);
+        }
+    }
+
+    // 查找 n-gram 的倒排表，create 为 true 时不存在就新建
+    private Postings postings(long gram, boolean create) {
+        int mask = gramKeys.length - 1;
+        int i = mix(gram) & mask;
+        while (gramKeys[i] != 0) {
+            if (gramKeys[i] == gram) return gramPostings[i];
+            i = (i + 1) & mask;
+        }
+        if (!create) return null;
+        if ((gramCount + 1) * 2 > gramKeys.length) {
+            growGrams();
+            return postings(gram, true);
+        }
+        gramKeys[i] = gram;
+        gramPostings[i] = new Postings();
+        gramCount++;
+        return gramPostings[i];
+    }
+
+    private void growGrams() {
+        long[] oldKeys = gramKeys;
+        Postings[] oldPostings = gramPostings;
+        gramKeys = new long[oldKeys.length * 2];
+        gramPostings = new Postings[oldKeys.length * 2];
+        int mask = gramKeys.length - 1;
+        for (int j = 0; j < oldKeys.length; j++) {
+            if (oldKeys[j] == 0) continue;
+            int i = mix(oldKeys[j]) & mask;
+            while (gramKeys[i] != 0) i = (i + 1) & mask;
+            gramKeys[i] = oldKeys[j];
+            gramPostings[i] = oldPostings[j];
+        }
+    }
+
+    private void clearGrams() {
+        gramKeys = new long[1024];
+        gramPostings = new Postings[1024];
+        gramCount = 0;
+    }
+
+    private static int mix(long gram) {
+        long h = gram * 0x9E3779B97F4A7C15L;
+        return (int) (h ^ (h >>> 32));
+    }
+
+    private static long trigram(String s, int i) {
+        return TRIGRAM | (long) s.charAt(i) << 32 | (long) s.charAt(i + 1) << 16 | s.charAt(i + 2);
+    }
+
+    private static String normalize(String s) {
+        return s == null ? "" : s.trim().toLowerCase(Locale.ROOT);
+    }
+}
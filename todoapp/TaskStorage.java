@@ -0,0 +1,41 @@
+package todoapp;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+// 客户端本地存储：默认是快照 + 追加日志（LocalTaskStore），超大数据量可选内存映射的定长槽位存储（MappedTaskStore）
+public interface TaskStorage extends Closeable {
+    // 读取本地数据；本地没有任何数据时返回 null
+    TaskData load() throws IOException, ClassNotFoundException;
+
+    // 把快照与已落盘状态比对，只写变化的部分；返回写入的字节数
+    long save(Snapshot snapshot) throws IOException;
+
+    // 界面数据的浅拷贝：在 FX 线程只复制列表结构（引用数组），任务字段由写线程读取并与已落盘状态比对。
+    // 之后界面的修改会再次标记脏数据并触发下一次保存，因此写线程读到的字段即使不是同一时刻也会被下一次保存纠正
+    final class Snapshot {
+        final List<Task> uncompleted;
+        final List<Task> completed;
+        final List<TaskList> lists;
+        final List<List<Task>> members;
+        private Snapshot(List<Task> uncompleted, List<Task> completed, List<TaskList> lists, List<List<Task>> members) {
+            this.uncompleted = uncompleted;
+            this.completed = completed;
+            this.lists = lists;
+            this.members = members;
+        }
+        public int taskCount() {
+            return uncompleted.size() + completed.size();
+        }
+    }
+
+    static Snapshot capture(Collection<Task> uncompleted, Collection<Task> completed,
+                            Collection<TaskList> customLists) {
+        List<TaskList> lists = new ArrayList<>(customLists);
+        List<List<Task>> members = new ArrayList<>(lists.size());
+        for (TaskList l : lists) members.add(new ArrayList<>(l.getTasks()));
+        return new Snapshot(new ArrayList<>(uncompleted), new ArrayList<>(completed), lists, members);
+    }
+}
@@ -6,6 +6,8 @@ public class TaskSyncData implements Serializable {
     private List<Task> tasks;
     private List<TaskList> customLists;
     private List<Task> deletedTasks;
+    // 增量同步游标：服务端返回的最新变更序号
+    private long cursor;
 
     public TaskSyncData(List<Task> tasks, List<Task> deletedTasks, List<TaskList> customLists) {
         this.tasks = tasks;
@@ -16,4 +18,6 @@ public class TaskSyncData implements Serializable {
     public List<Task> getTasks() { return tasks; }
     public List<TaskList> getCustomLists() { return customLists; }
     public List<Task> getDeletedTasks() { return deletedTasks; }
+    public long getCursor() { return cursor; }
+    public void setCursor(long cursor) { this.cursor = cursor; }
 }
\ No newline at end of file
@@ -0,0 +1,315 @@
+package todoapp;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+// TaskSyncData 的紧凑二进制编码：变长整数、UUID 存两个 long、清单ID字符串表按下标引用、带版本号。
+// 格式：'T' 'D' 版本 | 游标 | 清单ID表 | 清单表 | 任务表 | tasks 下标 | deletedTasks 下标 | customLists 下标。
+// 字符串写成 字节数+1 和 UTF-8 内容，0 表示 null，名称为 null 的任务解码后仍为 null
+public final class TaskWireCodec {
+    public static final String CONTENT_TYPE = "application/x-todo-sync";
+    public static final String LEGACY_CONTENT_TYPE = "application/octet-stream";
+    static final byte VERSION = 2;
+    private static final byte MAGIC_0 = 'T';
+    private static final byte MAGIC_1 = 'D';
+    private static final int FLAG_COMPLETED = 1;
+    private static final int FLAG_DELETED = 1 << 1;
+    private static final int ID_UUID = 0;
+    private static final int ID_STRING = 1;
+
+    private TaskWireCodec() {
+    }
+
+    // 按内容自动识别格式：二进制编码或 Java 原生序列化（旧格式）
+    public static TaskSyncData read(byte[] bytes) throws IOException {
+        if (isEncoded(bytes)) return decode(bytes);
+        try (ObjectInputStream ois = new ObjectInputStream(new ByteArrayInputStream(bytes))) {
+            return (TaskSyncData) ois.readObject();
+        } catch (ClassNotFoundException e) {
+            throw new IOException("反序列化失败", e);
+        }
+    }
+
+    public static byte[] write(TaskSyncData data, boolean binary) throws IOException {
+        if (binary) return encode(data);
+        ByteArrayOutputStream bos = new ByteArrayOutputStream();
+        try (ObjectOutputStream oos = new ObjectOutputStream(bos)) {
+            oos.writeObject(data);
+        }
+        return bos.toByteArray();
+    }
+
+    public static boolean isEncoded(byte[] bytes) {
+        return bytes.length >= 3 && bytes[0] == MAGIC_0 && bytes[1] == MAGIC_1;
+    }
+
+    public static byte[] encode(TaskSyncData data) {
+        // 清单按ID去重，customLists 中的实例优先
+        Map<String, TaskList> lists = new LinkedHashMap<>();
+        for (TaskList l : data.getCustomLists()) lists.putIfAbsent(l.getId(), l);
+        // 任务按对象去重，同一任务只编码一次
+        Map<Task, Integer> taskIndex = new IdentityHashMap<>();
+        List<Task> taskTable = new ArrayList<>();
+        for (Task t : data.getTasks()) collect(t, taskIndex, taskTable);
+        for (Task t : data.getDeletedTasks()) collect(t, taskIndex, taskTable);
+        for (TaskList l : lists.values()) {
+            for (Task t : l.getTasks()) collect(t, taskIndex, taskTable);
+        }
+        // 清单ID表：清单自身和任务引用的清单ID都只写一次
+        Map<String, Integer> idIndex = new LinkedHashMap<>();
+        for (String id : lists.keySet()) idIndex.put(id, idIndex.size());
+        for (Task t : taskTable) {
+            if (t.getListId() != null) idIndex.putIfAbsent(t.getListId(), idIndex.size());
+        }
+
+        Writer out = new Writer(64 + taskTable.size() * 48);
+        out.raw(MAGIC_0);
+        out.raw(MAGIC_1);
+        out.raw(VERSION);
+        out.varLong(data.getCursor());
+        out.varInt(idIndex.size());
+        for (String id : idIndex.keySet()) out.id(id);
+        out.varInt(lists.size());
+        for (TaskList l : lists.values()) {
+            out.varInt(idIndex.get(l.getId()));
+            out.string(l.getName());
+            out.raw(l.isDeleted() ? FLAG_DELETED : 0);
+            out.varLong(l.getLastModified());
+            out.varInt(l.getTasks().size());
+            for (Task t : l.getTasks()) out.varInt(taskIndex.get(t));
+        }
+        out.varInt(taskTable.size());
+        for (Task t : taskTable) {
+            out.id(t.getId());
+            out.string(t.getName());
+            out.raw((t.isCompleted() ? FLAG_COMPLETED : 0) | (t.isDeleted() ? FLAG_DELETED : 0));
+            out.varLong(t.getLastModified());
+            out.varInt(t.getListId() == null ? 0 : idIndex.get(t.getListId()) + 1);
+        }
+        out.indices(data.getTasks(), taskIndex);
+        out.indices(data.getDeletedTasks(), taskIndex);
+        out.varInt(data.getCustomLists().size());
+        Map<String, Integer> listIndex = new HashMap<>();
+        for (String id : lists.keySet()) listIndex.put(id, listIndex.size());
+        for (TaskList l : data.getCustomLists()) out.varInt(listIndex.get(l.getId()));
+        return out.toByteArray();
+    }
+
+    public static TaskSyncData decode(byte[] bytes) throws IOException {
+        Reader in = new Reader(bytes);
+        if (in.raw() != MAGIC_0 || in.raw() != MAGIC_1) {
+            throw new IOException("不是有效的同步数据");
+        }
+        int version = in.raw();
+        if (version != VERSION) {
+            throw new IOException("不支持的同步数据版本: " + version);
+        }
+        long cursor = in.varLong();
+        String[] ids = new String[in.count()];
+        for (int i = 0; i < ids.length; i++) ids[i] = in.id();
+        int listCount = in.count();
+        TaskList[] lists = new TaskList[listCount];
+        int[][] members = new int[listCount][];
+        for (int i = 0; i < listCount; i++) {
+            String id = ids[in.index(ids.length)];
+            String name = in.string();
+            int flags = in.raw();
+            lists[i] = new TaskList(id, name, (flags & FLAG_DELETED) != 0, in.varLong());
+            members[i] = new int[in.count()];
+            for (int j = 0; j < members[i].length; j++) members[i][j] = in.varInt();
+        }
+        int taskCount = in.count();
+        Task[] tasks = new Task[taskCount];
+        for (int i = 0; i < taskCount; i++) {
+            String id = in.id();
+            String name = in.string();
+            int flags = in.raw();
+            tasks[i] = new Task(id, name, (flags & FLAG_COMPLETED) != 0, (flags & FLAG_DELETED) != 0, in.varLong());
+            int belongs = in.index(ids.length + 1);
+            if (belongs > 0) tasks[i].setListId(ids[belongs - 1]);
+        }
+        for (int i = 0; i < listCount; i++) {
+            List<Task> listTasks = new ArrayList<>(members[i].length);
+            for (int idx : members[i]) {
+                checkIndex(idx, taskCount);
+                tasks[idx].setBelongsTo(lists[i]);
+                listTasks.add(tasks[idx]);
+            }
+            lists[i].getTasks().setAll(listTasks);
+        }
+        List<Task> taskList = in.tasks(tasks);
+        List<Task> deleted = in.tasks(tasks);
+        int customCount = in.count();
+        List<TaskList> customLists = new ArrayList<>(customCount);
+        for (int i = 0; i < customCount; i++) customLists.add(lists[in.index(listCount)]);
+        TaskSyncData data = new TaskSyncData(taskList, deleted, customLists);
+        data.setCursor(cursor);
+        return data;
+    }
+
+    private static void checkIndex(int index, int size) throws IOException {
+        if (index < 0 || index >= size) throw new IOException("同步数据下标越界: " + index);
+    }
+
+    private static void collect(Task t, Map<Task, Integer> index, List<Task> table) {
+        if (index.containsKey(t)) return;
+        index.put(t, table.size());
+        table.add(t);
+    }
+
+    // 直接写入可增长的字节数组，避免 ByteArrayOutputStream 每个字节一次同步调用
+    private static final class Writer {
+        private byte[] buf;
+        private int count;
+        Writer(int size) {
+            buf = new byte[size];
+        }
+        private void write(int b) {
+            if (count == buf.length) buf = Arrays.copyOf(buf, buf.length * 2);
+            buf[count++] = (byte) b;
+        }
+        private void write(byte[] b, int off, int len) {
+            if (count + len > buf.length) buf = Arrays.copyOf(buf, Math.max(buf.length * 2, count + len));
+            System.arraycopy(b, off, buf, count, len);
+            count += len;
+        }
+        byte[] toByteArray() {
+            return Arrays.copyOf(buf, count);
+        }
+        void raw(int b) {
+            write(b);
+        }
+        void varInt(int v) {
+            varLong(v & 0xFFFFFFFFL);
+        }
+        void varLong(long v) {
+            while ((v & ~0x7FL) != 0) {
+                write((int) ((v & 0x7F) | 0x80));
+                v >>>= 7;
+            }
+            write((int) v);
+        }
+        void fixedLong(long v) {
+            for (int i = 56; i >= 0; i -= 8) write((int) (v >>> i));
+        }
+        void string(String s) {
+            if (s == null) {
+                varInt(0);
+                return;
+            }
+            byte[] b = s.getBytes(StandardCharsets.UTF_8);
+            varInt(b.length + 1);
+            write(b, 0, b.length);
+        }
+        // 标准格式的 UUID 存成两个 long，其余ID按字符串存
+        void id(String id) {
+            UUID uuid = parseUuid(id);
+            if (uuid != null) {
+                raw(ID_UUID);
+                fixedLong(uuid.getMostSignificantBits());
+                fixedLong(uuid.getLeastSignificantBits());
+            } else {
+                raw(ID_STRING);
+                string(id);
+            }
+        }
+        void indices(List<Task> tasks, Map<Task, Integer> index) {
+            varInt(tasks.size());
+            for (Task t : tasks) varInt(index.get(t));
+        }
+    }
+
+    private static final class Reader {
+        private final byte[] buf;
+        private int pos;
+        Reader(byte[] buf) {
+            this.buf = buf;
+        }
+        int raw() throws IOException {
+            if (pos >= buf.length) throw new IOException("同步数据不完整");
+            return buf[pos++];
+        }
+        int varInt() throws IOException {
+            return (int) varLong();
+        }
+        long varLong() throws IOException {
+            long v = 0;
+            for (int shift = 0; shift < 64; shift += 7) {
+                int b = raw();
+                v |= (long) (b & 0x7F) << shift;
+                if ((b & 0x80) == 0) return v;
+            }
+            throw new IOException("变长整数格式错误");
+        }
+        long fixedLong() throws IOException {
+            long v = 0;
+            for (int i = 0; i < 8; i++) v = (v << 8) | (raw() & 0xFF);
+            return v;
+        }
+        // 元素个数：每个元素至少占一个字节，超过剩余字节数的一定是坏数据，不按它分配数组
+        int count() throws IOException {
+            int n = varInt();
+            if (n < 0 || n > buf.length - pos) throw new IOException("同步数据长度错误: " + n);
+            return n;
+        }
+        // 表下标，必须在 [0, size) 内
+        int index(int size) throws IOException {
+            int i = varInt();
+            checkIndex(i, size);
+            return i;
+        }
+        String string() throws IOException {
+            int len = varInt() - 1;
+            if (len == -1) return null;
+            if (len < 0 || len > buf.length - pos) throw new IOException("同步数据不完整");
+            String s = new String(buf, pos, len, StandardCharsets.UTF_8);
+            pos += len;
+            return s;
+        }
+        String id() throws IOException {
+            if (raw() == ID_UUID) return new UUID(fixedLong(), fixedLong()).toString();
+            String id = string();
+            if (id == null) throw new IOException("同步数据中的ID为空");
+            return id;
+        }
+        List<Task> tasks(Task[] table) throws IOException {
+            int n = count();
+            List<Task> result = new ArrayList<>(n);
+            for (int i = 0; i < n; i++) result.add(table[index(table.length)]);
+            return result;
+        }
+    }
+
+    // 只接受小写的标准 UUID 文本，保证解码后 toString() 能还原成同一个字符串
+    private static UUID parseUuid(String id) {
+        if (id == null || id.length() != 36) return null;
+        long msb = 0;
+        long lsb = 0;
+        int digits = 0;
+        for (int i = 0; i < 36; i++) {
+            char c = id.charAt(i);
+            if (i == 8 || i == 13 || i == 18 || i == 23) {
+                if (c != '-') return null;
+                continue;
+            }
+            int v;
+            if (c >= '0' && c <= '9') v = c - '0';
+            else if (c >= 'a' && c <= 'f') v = c - 'a' + 10;
+            else return null;
+            if (digits++ < 16) msb = (msb << 4) | v;
+            else lsb = (lsb << 4) | v;
+        }
+        return new UUID(msb, lsb);
+    }
+}
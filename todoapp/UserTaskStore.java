@@ -0,0 +1,336 @@
+package todoapp;
+
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+// 单个用户的服务端状态：合并按用户串行（对象锁），读取走发布出去的不可变快照，不加锁。
+// 内部只保存精简的 ServerTask / ServerTaskList，客户端模型只在请求边界转换
+public class UserTaskStore implements Serializable {
+    private static final long serialVersionUID = 1L;
+    // 任务记录按ID判等，直接作为自己的 key（见 ServerTask），不另建 key 对象
+    private final Map<ServerTask, ServerTask> tasks = new HashMap<>();
+    private final Map<String, ServerTaskList> lists = new HashMap<>();
+    private final Map<ServerTask, ServerTask> deletedTasks = new LinkedHashMap<>();
+    private final TaskChangeLog changeLog;
+    // 容器创建时随机生成，避免数据目录重建后版本号重复导致 ETag 误命中
+    private final long epoch;
+    private transient volatile Snapshot snapshot = Snapshot.EMPTY;
+    // 清单ID -> 该清单下的任务，随合并增量维护；可由 tasks 重建，不参与序列化
+    private transient Map<String, Map<ServerTask, ServerTask>> tasksByList = new HashMap<>();
+    // 清单ID -> 最近一次发布的成员列表，成员没变的清单直接复用
+    private transient Map<String, List<ServerTask>> publishedMembers = new HashMap<>();
+    // 清单ID字符串复用池，所有任务引用同一个实例
+    private transient Map<String, String> listIds = new HashMap<>();
+    // 未删除任务的名称索引和分页查询用的二级索引，随合并增量维护，查询不经过合并锁；可由 tasks 重建，不参与序列化
+    private transient TaskSearchIndex<ServerTask> searchIndex = new TaskSearchIndex<>();
+    private transient TaskQueryIndex queryIndex = new TaskQueryIndex();
+    // 同步请求按写日志的顺序合并：取号在写日志时，合并要等轮到自己的号
+    private transient long nextTicket;
+    private transient long mergeTurn;
+
+    // 某一时刻发布的只读视图，发布后不再修改。发布只带游标和各清单成员（按变化增量维护），
+    // 全量的任务、清单和删除标记列表在第一次全量读取时才生成（见 fullSnapshot），合并的开销与变更数成正比
+    public static class Snapshot {
+        static final Snapshot EMPTY = new Snapshot(Collections.emptyMap(), 0, 0, Contents.EMPTY);
+        final Map<String, List<ServerTask>> members;
+        final long cursor;
+        final long epoch;
+        private volatile Contents contents;
+        Snapshot(Map<String, List<ServerTask>> members, long cursor, long epoch, Contents contents) {
+            this.members = members;
+            this.cursor = cursor;
+            this.epoch = epoch;
+            this.contents = contents;
+        }
+        // 强 ETag：由容器纪元和版本号（变更游标）决定，不同编码格式各自独立
+        public String etag(boolean binary) {
+            return "\"" + Long.toHexString(epoch) + "-" + cursor + (binary ? "-b" : "-j") + "\"";
+        }
+        // 还原成客户端模型用于响应；只能用于 fullSnapshot 返回的快照
+        public TaskSyncData toSyncData() {
+            Contents c = contents;
+            Materializer m = new Materializer();
+            List<Task> taskList = m.tasks(c.tasks);
+            List<TaskList> taskLists = new ArrayList<>(c.lists.size());
+            for (ServerTaskList l : c.lists) taskLists.add(m.list(l, members.get(l.getId())));
+            TaskSyncData data = new TaskSyncData(taskList, m.tasks(c.deletedTasks), taskLists);
+            data.setCursor(cursor);
+            return data;
+        }
+    }
+
+    // 快照对应版本的全量内容
+    private static final class Contents {
+        static final Contents EMPTY = new Contents(Collections.emptyList(), Collections.emptyList(), Collections.emptyList());
+        final List<ServerTask> tasks;
+        final List<ServerTaskList> lists;
+        final List<ServerTask> deletedTasks;
+        Contents(List<ServerTask> tasks, List<ServerTaskList> lists, List<ServerTask> deletedTasks) {
+            this.tasks = tasks;
+            this.lists = lists;
+            this.deletedTasks = deletedTasks;
+        }
+    }
+
+    // 一次响应内同一个任务只还原一次，清单成员和任务列表共享同一对象
+    private static class Materializer {
+        private final Map<ServerTask, Task> tasks = new IdentityHashMap<>();
+        Task task(ServerTask st) {
+            return tasks.computeIfAbsent(st, ServerTask::toTask);
+        }
+        List<Task> tasks(List<ServerTask> source) {
+            List<Task> result = new ArrayList<>(source.size());
+            for (ServerTask st : source) result.add(task(st));
+            return result;
+        }
+        TaskList list(ServerTaskList l, List<ServerTask> members) {
+            return l.toTaskList(members == null ? new ArrayList<>() : tasks(members));
+        }
+    }
+
+    public UserTaskStore() {
+        changeLog = new TaskChangeLog();
+        epoch = new Random().nextLong();
+    }
+
+    // 只复制需要持久化的状态，任务、清单和变更记录都不可变，直接共享
+    private UserTaskStore(UserTaskStore source) {
+        tasks.putAll(source.tasks);
+        lists.putAll(source.lists);
+        deletedTasks.putAll(source.deletedTasks);
+        changeLog = source.changeLog.copy();
+        epoch = source.epoch;
+    }
+
+    // 快照用的副本：在快照写锁内复制，序列化放到锁外，不阻塞同步请求
+    synchronized UserTaskStore copyForSnapshot() {
+        return new UserTaskStore(this);
+    }
+
+    public Snapshot snapshot() {
+        return snapshot;
+    }
+
+    // 带全量内容的快照，用于全量下载。给定的快照仍是当前版本时为它生成内容，否则返回当前版本的；
+    // 同一版本只生成一次。生成要在合并锁内读任务表，保证与快照的游标一致
+    public Snapshot fullSnapshot(Snapshot requested) {
+        if (requested.contents != null) return requested;
+        synchronized (this) {
+            Snapshot current = snapshot;
+            if (current.contents == null) {
+                current.contents = new Contents(
+                        Collections.unmodifiableList(new ArrayList<>(tasks.values())),
+                        Collections.unmodifiableList(new ArrayList<>(lists.values())),
+                        Collections.unmodifiableList(new ArrayList<>(deletedTasks.values())));
+            }
+            return current;
+        }
+    }
+
+    public synchronized int taskCount() {
+        return tasks.size();
+    }
+
+    public synchronized int deletedTaskCount() {
+        return deletedTasks.size();
+    }
+
+    // 游标之后的变更，清单带上当前发布的成员
+    public TaskSyncData changesSince(long since) {
+        return changesSince(since, 0, 0);
+    }
+
+    // 游标之后的变更，跳过序号在 (skipFrom, skipTo] 内的（同一请求刚合并的）。
+    // 游标和清单成员取自同一个已发布的快照，只返回该快照游标之内的变更，之后的留给下一次拉取
+    public TaskSyncData changesSince(long since, long skipFrom, long skipTo) {
+        Snapshot current = snapshot;
+        long cursor = current.cursor;
+        List<TaskChangeLog.Change> changes = changeLog.changesSince(since, cursor, skipFrom, skipTo);
+        Materializer m = new Materializer();
+        List<Task> changedTasks = new ArrayList<>();
+        List<TaskList> changedLists = new ArrayList<>();
+        List<Task> deleted = new ArrayList<>();
+        for (TaskChangeLog.Change c : changes) {
+            switch (c.kind) {
+                case TaskChangeLog.TASK: changedTasks.add(m.task((ServerTask) c.entity)); break;
+                case TaskChangeLog.LIST:
+                    ServerTaskList l = (ServerTaskList) c.entity;
+                    changedLists.add(m.list(l, current.members.get(l.getId())));
+                    break;
+                case TaskChangeLog.DELETED: deleted.add(m.task((ServerTask) c.entity)); break;
+                default: break;
+            }
+        }
+        TaskSyncData data = new TaskSyncData(changedTasks, deleted, changedLists);
+        data.setCursor(cursor);
+        return data;
+    }
+
+    // 按名称搜索未删除的任务，结果按相关度排序
+    public TaskSyncData search(String query, int limit) {
+        return toSyncData(searchIndex.search(query, limit));
+    }
+
+    // 按条件分页查询未删除的任务
+    public TaskQueryIndex.Page query(TaskQueryIndex.Query query) {
+        return queryIndex.query(query);
+    }
+
+    // 只含给定任务的响应，游标为当前版本
+    public TaskSyncData toSyncData(List<ServerTask> tasks) {
+        long cursor = snapshot.cursor;
+        TaskSyncData data = new TaskSyncData(new Materializer().tasks(tasks), new ArrayList<>(), new ArrayList<>());
+        data.setCursor(cursor);
+        return data;
+    }
+
+    // 取一个合并顺序号；调用方在同一把锁内提交日志，取号顺序即日志顺序
+    synchronized long nextTicket() {
+        return nextTicket++;
+    }
+
+    // 等到轮到这个号再返回（持有本对象的锁），之后必须调用 finishTurn。
+    // 等待不可中断：跳过一个号会让后面的请求永远等下去
+    synchronized void awaitTurn(long ticket) {
+        boolean interrupted = false;
+        while (mergeTurn != ticket) {
+            try {
+                wait();
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        if (interrupted) Thread.currentThread().interrupt();
+    }
+
+    synchronized void finishTurn() {
+        mergeTurn++;
+        notifyAll();
+    }
+
+    // 合并一次同步请求并发布新快照；同一用户的合并在这里串行
+    public synchronized void merge(TaskSyncData delta) {
+        // 处理已删除的任务：不早于现有任务、且比现有删除标记新的才替换旧标记并移出搜索和查询，
+        // 与 indexVisible 的规则一致；过期的删除标记不会把更新的任务藏起来。
+        // 客户端会把收到的删除标记原样推回来，同一版本的标记不再记变更，否则游标一直前进、反复通知
+        for (Task deletedTask : delta.getDeletedTasks()) {
+            ServerTask tombstone = ServerTask.from(deletedTask, listId(deletedTask.getListId())).asDeleted();
+            ServerTask current = tasks.get(tombstone);
+            ServerTask previous = deletedTasks.get(tombstone);
+            if (current != null && tombstone.getLastModified() < current.getLastModified()) continue;
+            if (previous != null && tombstone.getLastModified() <= previous.getLastModified()) continue;
+            put(deletedTasks, tombstone);
+            changeLog.stamp(TaskChangeLog.DELETED, tombstone, tombstone);
+            searchIndex.remove(tombstone);
+            if (current != null) queryIndex.remove(current);
+        }
+        // 处理普通任务，同时更新清单索引并记下成员有变化的清单
+        Set<String> dirtyLists = new HashSet<>();
+        for (Task incoming : delta.getTasks()) {
+            ServerTask t = ServerTask.from(incoming, listId(incoming.getListId()));
+            ServerTask old = tasks.get(t);
+            if (old == null || t.getLastModified() > old.getLastModified()) {
+                put(tasks, t);
+                if (old != null) {
+                    unindex(old, dirtyLists);
+                    queryIndex.remove(old);
+                }
+                index(t, dirtyLists);
+                indexVisible(t);
+                changeLog.stamp(TaskChangeLog.TASK, t, t);
+            }
+        }
+        // 处理清单
+        Set<String> changedLists = new HashSet<>();
+        for (TaskList incoming : delta.getCustomLists()) {
+            ServerTaskList l = ServerTaskList.from(incoming);
+            ServerTaskList old = lists.get(l.getId());
+            if (old == null || l.getLastModified() > old.getLastModified()) {
+                lists.put(l.getId(), l);
+                changedLists.add(l.getId());
+                dirtyLists.add(l.getId());
+            }
+        }
+        publish(dirtyLists, changedLists);
+    }
+
+    private String listId(String id) {
+        if (id == null) return null;
+        return listIds.computeIfAbsent(id, k -> k);
+    }
+
+    // 放入新版本：先移除再放入，key 也换成新版本，不让表里留着旧版本的记录
+    private static void put(Map<ServerTask, ServerTask> map, ServerTask t) {
+        map.remove(t);
+        map.put(t, t);
+    }
+
+    private void index(ServerTask t, Set<String> dirtyLists) {
+        if (t.getListId() == null) return;
+        tasksByList.computeIfAbsent(t.getListId(), k -> new LinkedHashMap<>()).put(t, t);
+        dirtyLists.add(t.getListId());
+    }
+
+    // 删除标记不早于这个版本的任务不参与搜索和查询（调用前已从查询索引移除旧版本）
+    private void indexVisible(ServerTask t) {
+        ServerTask tombstone = deletedTasks.get(t);
+        if (t.isDeleted() || (tombstone != null && tombstone.getLastModified() >= t.getLastModified())) {
+            searchIndex.remove(t);
+        } else {
+            searchIndex.put(t, t.getName(), t);
+            queryIndex.add(t);
+        }
+    }
+
+    private void unindex(ServerTask t, Set<String> dirtyLists) {
+        if (t.getListId() == null) return;
+        Map<ServerTask, ServerTask> bucket = tasksByList.get(t.getListId());
+        if (bucket != null) {
+            bucket.remove(t);
+            if (bucket.isEmpty()) tasksByList.remove(t.getListId());
+        }
+        dirtyLists.add(t.getListId());
+    }
+
+    // 只为成员有变化的清单重建成员列表，其余沿用上次发布的，组装成不可变快照后一次性发布
+    private void publish(Set<String> dirtyLists, Set<String> changedLists) {
+        Map<String, List<ServerTask>> members = new HashMap<>(publishedMembers);
+        for (String listId : dirtyLists) {
+            Map<ServerTask, ServerTask> bucket = tasksByList.get(listId);
+            members.put(listId, bucket == null ? Collections.emptyList()
+                    : Collections.unmodifiableList(new ArrayList<>(bucket.values())));
+            ServerTaskList l = lists.get(listId);
+            if (l != null && changedLists.contains(listId)) {
+                changeLog.stamp(TaskChangeLog.LIST, listId, l);
+            }
+        }
+        publishedMembers = members;
+        snapshot = new Snapshot(Collections.unmodifiableMap(members), changeLog.currentSeq(), epoch, null);
+    }
+
+    private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+        in.defaultReadObject();
+        tasksByList = new HashMap<>();
+        publishedMembers = new HashMap<>();
+        listIds = new HashMap<>();
+        searchIndex = new TaskSearchIndex<>();
+        queryIndex = new TaskQueryIndex();
+        Set<String> allLists = new HashSet<>(lists.keySet());
+        for (ServerTask t : tasks.values()) {
+            if (t.getListId() != null) listIds.putIfAbsent(t.getListId(), t.getListId());
+            index(t, allLists);
+            indexVisible(t);
+        }
+        publish(allLists, Collections.emptySet());
+    }
+}